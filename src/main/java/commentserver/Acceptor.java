@@ -0,0 +1,132 @@
+package commentserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This thread accepts clients and hands them to handshake readers right away, 
+ * so it never waits for a client to send its first message.<br>
+ * Several acceptors can listen on the same port; each one has its own socket with SO_REUSEPORT 
+ * if the platform supports it (Linux), so the kernel spreads connections over them,
+ * otherwise they share one socket.
+ *
+ * @author Hiroki Sawano
+ * @see HandshakeReader
+ * @see ServerSocketChannel
+ * @see Metrics
+ * @since 1.0
+ */
+public class Acceptor extends Thread {
+
+    // how long to wait before accepting again after accept failed (milliseconds)
+    private static final long MIN_BACKOFF = 10;
+    private static final long MAX_BACKOFF = 1000;
+
+    private static Logger logger = LogManager.getLogger();
+
+    private final ServerSocketChannel serverChannel;
+    private final HandshakeReader[] handshakeReaders;
+    private int next = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     * @param serverChannel a bound server socket
+     * @param handshakeReaders readers the clients are handed to in turn
+     */
+    public Acceptor(String name, ServerSocketChannel serverChannel, HandshakeReader[] handshakeReaders) {
+        super(name);
+        this.serverChannel = serverChannel;
+        this.handshakeReaders = handshakeReaders;
+    }
+
+    /**
+     * open a server socket
+     *
+     * @param port
+     * @param backlog
+     * @param reusePort true to set SO_REUSEPORT
+     * @return serverChannel
+     * @throws IOException
+     */
+    public static ServerSocketChannel open(int port, int backlog, boolean reusePort) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        if (reusePort) {
+            serverChannel.setOption(reusePortOption(), true);
+        }
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        return serverChannel;
+    }
+
+    /**
+     * see if SO_REUSEPORT is available<br>
+     * the option was added in Java 9, so it is looked up by reflection.
+     *
+     * @return true if it is available
+     */
+    public static boolean isReusePortSupported() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            SocketOption<Boolean> option = reusePortOption();
+            return option != null && channel.supportedOptions().contains(option);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Accepts clients until the socket is closed.
+     */
+    @Override
+    public void run() {
+        long backoff = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel client;
+            try {
+                client = serverChannel.accept();
+                backoff = 0;
+            } catch (IOException e) {
+                if (!serverChannel.isOpen()) {
+                    break;
+                }
+                // e.g. too many open files, which a retry right away can't fix
+                backoff = Math.min(Math.max(MIN_BACKOFF, backoff * 2), MAX_BACKOFF);
+                logger.error("Couldn't accept a client ({}), retrying in {} ms", e.getMessage(), backoff);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                continue;
+            }
+
+            Metrics.incrementAccepted();
+            handshakeReaders[next].register(client, System.nanoTime());
+            next = (next + 1) % handshakeReaders.length;
+        }
+    }
+
+    /**
+     * stop accepting clients
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        serverChannel.close();
+    }
+}
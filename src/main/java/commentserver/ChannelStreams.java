@@ -0,0 +1,78 @@
+package commentserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class makes streams reading and writing a blocking socket channel directly.<br>
+ * The streams of SocketChannel.socket() hold the channel's blocking lock while reading and writing on Java 8 to 12,
+ * so a thread writing a comment to a client waits for the client's own thread to receive something.
+ * A socket channel reads and writes under separate locks,
+ * so these streams let one thread write while another is blocked reading.
+ *
+ * @author Hiroki Sawano
+ * @see CommentServerThread
+ * @see SocketChannel
+ * @since 1.0
+ */
+public class ChannelStreams {
+
+    private ChannelStreams() {
+    }
+
+    /**
+     * @param channel a channel in blocking mode
+     * @return a stream reading the channel
+     */
+    public static InputStream in(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * @param channel a channel in blocking mode
+     * @return a stream writing the channel
+     */
+    public static OutputStream out(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
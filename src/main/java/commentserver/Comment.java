@@ -0,0 +1,234 @@
+package commentserver;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Comment class<br>
+ * an immutable record of a comment users post in csv<br>
+ * message example:<br>
+ * user123,STUDENT,subscribe,12.34,Hello,SHARE,live,ALL,,30,100
+ *
+ * @author Hiroki Sawano
+ *
+ */
+public class Comment {
+
+    // user tag
+    private final String userId;
+    private final String role;
+    private final String from;
+    // message tag
+    private final String time;
+    private final String value;
+    private final String type;
+    private final String target;
+    private final String scope;
+    private final String whisper;
+    // style tag
+    private final String fontsize;
+    private final String place;
+
+    public Comment(String userId, String role, String from, String time, String value, String type,
+            String target, String scope, String whisper, String fontsize, String place) {
+        this.userId = userId;
+        this.role = role;
+        this.from = from;
+        this.time = time;
+        this.value = value;
+        this.type = type;
+        this.target = target;
+        this.scope = scope;
+        this.whisper = whisper;
+        this.fontsize = fontsize;
+        this.place = place;
+    }
+
+    /**
+     * parse a received comment(csv)
+     *
+     * @param message
+     * @return comment
+     */
+    public static Comment parse(String message) {
+        String[] array = message.split(",", -1);
+        return new Comment(array[0], array[1], array[2], array[3], array[4], array[5],
+                array[6], array[7], array[8], array[9], array[10]);
+    }
+
+    public String getUserId() {
+        return this.userId;
+    }
+
+    public String getRole() {
+        return this.role;
+    }
+
+    public String getFrom() {
+        return this.from;
+    }
+
+    public String getTime() {
+        return this.time;
+    }
+
+    /**
+     * @return time as seconds (0 if it isn't a number)
+     */
+    public double getSeconds() {
+        try {
+            return Double.parseDouble(time);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public String getTarget() {
+        return this.target;
+    }
+
+    public String getScope() {
+        return this.scope;
+    }
+
+    public String getWhisper() {
+        return this.whisper;
+    }
+
+    public String getFontsize() {
+        return this.fontsize;
+    }
+
+    public String getPlace() {
+        return this.place;
+    }
+
+    /**
+     * @param value
+     * @return a copy of this comment with another value
+     */
+    public Comment withValue(String value) {
+        return new Comment(userId, role, from, time, value, type, target, scope, whisper, fontsize, place);
+    }
+
+    /**
+     * @return true if the comment is sent to all users watching the movie
+     */
+    public boolean isToAll() {
+        return whisper.isEmpty() && (scope.isEmpty() || scope.equals("ALL"));
+    }
+
+    /**
+     * write this comment as a &lt;comment&gt; element
+     *
+     * @param writer
+     * @throws XMLStreamException
+     */
+    public void write(XMLStreamWriter writer) throws XMLStreamException {
+        // <comment>
+        writer.writeStartElement("comment");
+        // 	<user>
+        writer.writeStartElement("user");
+        writeElement(writer, "user_id", userId);
+        writeElement(writer, "role", role);
+        writeElement(writer, "from", from);
+        writer.writeEndElement();
+        // 	<message>
+        writer.writeStartElement("message");
+        writeElement(writer, "time", time);
+        writeElement(writer, "value", value);
+        writeElement(writer, "type", type);
+        writeElement(writer, "target", target);
+        writeElement(writer, "scope", scope);
+        writeElement(writer, "whisper", whisper);
+        writer.writeEndElement();
+        // 	<style>
+        writer.writeStartElement("style");
+        writeElement(writer, "fontsize", fontsize);
+        writeElement(writer, "place", place);
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    /**
+     * builds a Comment while a comment list file is being read
+     */
+    static class Builder {
+
+        private String userId = "";
+        private String role = "";
+        private String from = "";
+        private String time = "";
+        private String value = "";
+        private String type = "";
+        private String target = "";
+        private String scope = "";
+        private String whisper = "";
+        private String fontsize = "";
+        private String place = "";
+
+        /**
+         * set a field by the name of the element containing it
+         *
+         * @param name
+         * @param text
+         */
+        void set(String name, String text) {
+            switch (name) {
+                case "user_id":
+                    userId = text;
+                    break;
+                case "role":
+                    role = text;
+                    break;
+                case "from":
+                    from = text;
+                    break;
+                case "time":
+                    time = text;
+                    break;
+                case "value":
+                    value = text;
+                    break;
+                case "type":
+                    type = text;
+                    break;
+                case "target":
+                    target = text;
+                    break;
+                case "scope":
+                    scope = text;
+                    break;
+                case "whisper":
+                    whisper = text;
+                    break;
+                case "fontsize":
+                    fontsize = text;
+                    break;
+                case "place":
+                    place = text;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Comment build() {
+            return new Comment(userId, role, from, time, value, type, target, scope, whisper, fontsize, place);
+        }
+    }
+}
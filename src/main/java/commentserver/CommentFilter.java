@@ -0,0 +1,30 @@
+package commentserver;
+
+/**
+ * This interface is a stage incoming comments pass through before they are distributed and saved.<br>
+ * A filter is instantiated once by CommentPipeline with its no-argument constructor 
+ * and called on the threads of all connections at the same time, so it must be thread-safe.
+ *
+ * @author Hiroki Sawano
+ * @see CommentPipeline
+ * @since 1.0
+ */
+public interface CommentFilter {
+
+    /**
+     * inspect a comment
+     *
+     * @param sender the connection which sent the comment
+     * @param comment
+     * @return the comment to pass on (possibly rewritten), or null to drop it
+     */
+    Comment filter(CommentServerThread sender, Comment comment);
+
+    /**
+     * release what the filter holds for a connection
+     *
+     * @param sender
+     */
+    default void disconnected(CommentServerThread sender) {
+    }
+}
@@ -1,33 +1,66 @@
 package commentserver;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
-import org.xml.sax.SAXException;
-
+/**
+ * This class holds comments posted on a movie and reads/writes them from/to <i>movieId.xml</i>.<br>
+ * The file is read and written with StAX, so no DOM tree is built 
+ * and the factories are shared among threads.<br>
+ * The file is replaced atomically or new comments are appended to it, 
+ * so a crash while writing never loses comments already saved.
+ *
+ * @author Hiroki Sawano
+ * @see Comment
+ * @see XMLStreamReader
+ * @see XMLStreamWriter
+ * @see RoomManagement
+ * @since 1.0
+ */
 public class CommentList {
 
     private static Logger logger = LogManager.getLogger();
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    // the closing tag of a comment list file, which new comments are written over
+    private static final byte[] ROOT_END = "</root>".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
 
     // where comment list is saved
     private final String commentListDir;
@@ -35,10 +68,20 @@ public class CommentList {
     private String fileName = "";
     // movie id corresponding to comment list
     private String movieId = "";
-    // comment list xml
-    private Document commentList = null;
-    // elapsed time when users accesse a movie 
-    private long elapsedTime = 0;
+    // time when the comment list was created
+    private long createdTime = 0;
+    // comments in the order they were posted
+    private final List<Comment> comments = new ArrayList<>();
+    // the number of users sharing this comment list
+    private volatile int viewers = 0;
+    // time when a user last joined or left (milliseconds)
+    private volatile long lastActive = System.currentTimeMillis();
+    // the number of comments already written to the file
+    private int persistedCount = 0;
+    // the position of </root> in the file (-1 if unknown)
+    private long rootEndPosition = -1;
+    // comments sent to all users sorted by time, built when the movie is replayed for the first time
+    private TreeSet<Entry> timeIndex = null;
 
     /**
      * Constructor<br>
@@ -47,10 +90,9 @@ public class CommentList {
      *
      * @param movieId
      * @throws IOException
-     * @throws ParserConfigurationException
-     * @throws SAXException
+     * @throws XMLStreamException
      */
-    public CommentList(String movieId) throws IOException, ParserConfigurationException, SAXException {
+    public CommentList(String movieId) throws IOException, XMLStreamException {
         Config config = Config.getInstance();
         commentListDir = config.getCommentListDir();
         setMovieId(movieId);
@@ -60,18 +102,10 @@ public class CommentList {
 
     /**
      *
-     * @param commentList
+     * @return the number of comments
      */
-    private void setCommentList(Document commentList) {
-        this.commentList = commentList;
-    }
-
-    /**
-     *
-     * @return commentList
-     */
-    public Document getCommentList() {
-        return this.commentList;
+    public synchronized int size() {
+        return comments.size();
     }
 
     /**
@@ -106,65 +140,160 @@ public class CommentList {
         return this.fileName;
     }
 
-    public void setElapsedTime() {
-        long createdTime = 0;
+    /**
+     * called by RoomManagement when a user joins
+     *
+     * @return the number of viewers
+     */
+    int incrementViewers() {
+        lastActive = System.currentTimeMillis();
+        return ++viewers;
+    }
+
+    /**
+     * called by RoomManagement when a user leaves
+     *
+     * @return the number of viewers
+     */
+    int decrementViewers() {
+        lastActive = System.currentTimeMillis();
+        return --viewers;
+    }
+
+    /**
+     *
+     * @return the number of viewers
+     */
+    int getViewers() {
+        return viewers;
+    }
 
-        Element root = getCommentList().getDocumentElement();
-        NodeList list = root.getElementsByTagName("createdTime");
-        Element element = (Element) list.item(0);
-        createdTime = new Long(element.getFirstChild().getNodeValue());
+    /**
+     *
+     * @return time when a user last joined or left, or the comment list was loaded (milliseconds)
+     */
+    long getLastActive() {
+        return lastActive;
+    }
 
-        this.elapsedTime = new Date().getTime() - createdTime;
+    /**
+     *
+     * @return createdTime
+     */
+    public long getCreatedTime() {
+        return this.createdTime;
     }
 
     /**
      *
-     * @return elapsedTime
+     * @return elapsed time since the comment list was created
      */
     public long getElapsedTime() {
-        return this.elapsedTime;
+        return new Date().getTime() - createdTime;
     }
 
     /**
      * setting a comment list<br>
-     * if a thread that is referring to the same comment file exists, share it,
-     * otherwise open it<br>
+     * RoomManagement shares it among threads referring to the same comment file,
+     * so this is called only by the first one<br>
      * in the case the file doesn't exist, create a new file consisting its
      * created time
      *
      * @throws IOException
-     * @throws ParserConfigurationException
-     * @throws SAXException
+     * @throws XMLStreamException
      */
-    private void prepareCommentList() throws IOException, ParserConfigurationException, SAXException {
-        // see if other users have already opened the comment list file
-        setCommentList(UserManagement.checkFile(getMovieId()));
-
-        // if no one opened the comment list
-        if (getCommentList() == null) {
-            // publisher accesses if this is live streaming
-            // read the comment file
-            File fileObject = new File(commentListDir + "/" + getFileName());
-
-            // if it doesn't exist, create a new file
-            if (!fileObject.exists()) {
-                fileObject.createNewFile();
-                OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(commentListDir + "/" + getFileName()));
-                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><createdTime>"
-                        + new Date().getTime() + "</createdTime></root>");
-
-                writer.close();
-                logger.info("Created the comment list : {}", commentListDir + "/" + getFileName());
-            }else{
-                logger.info("Opened the comment list : {}", commentListDir + "/" + getFileName());
+    private void prepareCommentList() throws IOException, XMLStreamException {
+        // publisher accesses if this is live streaming
+        // read the comment file
+        File fileObject = new File(commentListDir + "/" + getFileName());
+
+        // if it doesn't exist, create a new file
+        if (!fileObject.exists()) {
+            createdTime = new Date().getTime();
+            writeCommentListToFile();
+            logger.info("Created the comment list : {}", commentListDir + "/" + getFileName());
+        }else{
+            readCommentList(fileObject);
+            persistedCount = comments.size();
+            logger.info("Opened the comment list : {} ({} comments)", commentListDir + "/" + getFileName(), comments.size());
+        }
+    }
+
+    /**
+     * read a comment file element by element<br>
+     * if the file is cut off by a crash while comments are being appended, 
+     * the comments before the broken one are kept and the file is rewritten next time
+     *
+     * @param fileObject
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void readCommentList(File fileObject) throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(fileObject))) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                Comment.Builder builder = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("comment") && builder != null) {
+                        comments.add(builder.build());
+                        builder = null;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String name = reader.getLocalName();
+                    switch (name) {
+                        case "root":
+                        case "user":
+                        case "message":
+                        case "style":
+                            break;
+                        case "createdTime":
+                            createdTime = Long.parseLong(reader.getElementText().trim());
+                            break;
+                        case "comment":
+                            builder = new Comment.Builder();
+                            break;
+                        default:
+                            String text = reader.getElementText();
+                            if (builder != null) {
+                                builder.set(name, text);
+                            }
+                            break;
+                    }
+                }
+                rootEndPosition = findRootEnd(fileObject);
+            } catch (XMLStreamException e) {
+                if (createdTime == 0) {
+                    throw e;
+                }
+                logger.warn("Recovered {} comments from the broken comment list : {}", comments.size(), fileObject);
+                rootEndPosition = -1;
+            } finally {
+                reader.close();
             }
-            DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            setCommentList(docBuilder.parse(fileObject));
-        } else {
-            // subscriber accesses if this is live streaming
         }
+    }
 
-        setElapsedTime();
+    /**
+     * find the position of &lt;/root&gt; at the end of a file
+     *
+     * @param fileObject
+     * @return the position (-1 if the file doesn't end with it)
+     * @throws IOException
+     */
+    private static long findRootEnd(File fileObject) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileObject, "r")) {
+            long position = file.length() - ROOT_END.length;
+            if (position < 0) {
+                return -1;
+            }
+            byte[] tail = new byte[ROOT_END.length];
+            file.seek(position);
+            file.readFully(tail);
+            return Arrays.equals(tail, ROOT_END) ? position : -1;
+        }
     }
 
     /**
@@ -173,141 +302,126 @@ public class CommentList {
     @Override
     public String toString() {
         StringWriter sw = new StringWriter();
-
-        TransformerFactory tfactory = TransformerFactory.newInstance();
         try {
-            Transformer transformer = tfactory.newTransformer();
-            transformer.transform(new DOMSource(getCommentList()), new StreamResult(sw));
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
+            writeCommentList(sw, -1);
+        } catch (XMLStreamException e) {
+            logger.error("Couldn't write the comment list : {}", getMovieId());
         }
-
         return sw.toString();
     }
 
-    public void addElapsedTime(String elapsedTime) {
-        // <root>
-        Element e_root = getCommentList().getDocumentElement();
-        // 	<elapsedTime>
-        Element e_elapsedTime = getCommentList().createElement("elapsedTime");
-        e_root.appendChild(e_elapsedTime);
-        Text t_elapsedTime = getCommentList().createTextNode(elapsedTime);
-        e_elapsedTime.appendChild(t_elapsedTime);
+    /**
+     * write comment list in xml format<br>
+     * comments are written outside the lock so that a slow client doesn't block others posting<br>
+     * whispers and scoped comments are left out because who receives the list isn't known yet
+     *
+     * @param out
+     * @param elapsedTime elapsed time added to the list (omitted if negative)
+     * @throws XMLStreamException
+     */
+    public void writeCommentList(Writer out, long elapsedTime) throws XMLStreamException {
+        writeCommentList(out, elapsedTime, true);
     }
 
-    public void removeElapsedTime() {
-        Element root = getCommentList().getDocumentElement();
-        NodeList list = root.getElementsByTagName("elapsedTime");
-        root.removeChild(list.item(0));
+    /**
+     * write comment list in xml format
+     *
+     * @param out
+     * @param elapsedTime elapsed time added to the list (omitted if negative)
+     * @param withComments false if comments are sent later as the movie is replayed
+     * @throws XMLStreamException
+     */
+    public void writeCommentList(Writer out, long elapsedTime, boolean withComments) throws XMLStreamException {
+        List<Comment> snapshot;
+        synchronized (this) {
+            snapshot = withComments ? new ArrayList<>(comments) : new ArrayList<>();
+        }
+
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out);
+        writer.writeStartDocument("UTF-8", "1.0");
+        // <root>
+        writer.writeStartElement("root");
+        // 	<createdTime>
+        writer.writeStartElement("createdTime");
+        writer.writeCharacters(Long.toString(createdTime));
+        writer.writeEndElement();
+        for (Comment comment : snapshot) {
+            if (comment.isToAll()) {
+                comment.write(writer);
+            }
+        }
+        // 	<elapsedTime>
+        if (elapsedTime >= 0) {
+            writer.writeStartElement("elapsedTime");
+            writer.writeCharacters(Long.toString(elapsedTime));
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
     }
 
     /**
-     * append a received comment(csv) to a dom object<br>
+     * append a received comment(csv) to the list<br>
      * message example:<br>
      * user123,STUDENT,subscribe,12.34,Hello,SHARE,live,ALL,,30,100
      *
      * @param addMessage
      */
     public void addComment(String addMessage) {
-        String[] array = addMessage.split(",");
-        // user tag
-        String user_id = array[0];
-        String role = array[1];
-        String from = array[2];
-        // message tag
-        String time = array[3];
-        String value = array[4];
-        String type = array[5];
-        String target = array[6];
-        String scope = array[7];
-        String whisper = array[8];
-        // style tag
-        String fontsize = array[9];
-        String place = array[10];
+        addComment(Comment.parse(addMessage));
+    }
 
-        // <root>
-        Element e_root = getCommentList().getDocumentElement();
-        // 	<comment>
-        Element e_comment = getCommentList().createElement("comment");
-        e_root.appendChild(e_comment);
-        // 		<user>
-        Element e_user = getCommentList().createElement("user");
-        e_comment.appendChild(e_user);
-        // 			<user_id>
-        Element e_user_id = getCommentList().createElement("user_id");
-        e_user.appendChild(e_user_id);
-        Text t_user_id = getCommentList().createTextNode(user_id);
-        e_user_id.appendChild(t_user_id);
-        //			</user_id>
-        //			<role>
-        Element e_role = getCommentList().createElement("role");
-        e_user.appendChild(e_role);
-        Text t_role = getCommentList().createTextNode(role);
-        e_role.appendChild(t_role);
-        //			</role>
-        //			<from>
-        Element e_from = getCommentList().createElement("from");
-        e_user.appendChild(e_from);
-        Text t_from = getCommentList().createTextNode(from);
-        e_from.appendChild(t_from);
-        //			</from>
-        // 		</user>
-        // 		<message>
-        Element e_message = getCommentList().createElement("message");
-        e_comment.appendChild(e_message);
-        // 			<time>
-        Element e_time = getCommentList().createElement("time");
-        e_message.appendChild(e_time);
-        Text t_time = getCommentList().createTextNode(time);
-        e_time.appendChild(t_time);
-        // 			</time>
-        // 			<value>
-        Element e_value = getCommentList().createElement("value");
-        e_message.appendChild(e_value);
-        Text t_value = getCommentList().createTextNode(value);
-        e_value.appendChild(t_value);
-        // 			</value>
-        // 			<type>
-        Element e_type = getCommentList().createElement("type");
-        e_message.appendChild(e_type);
-        Text t_type = getCommentList().createTextNode(type);
-        e_type.appendChild(t_type);
-        // 			</type>
-        // 			<target>
-        Element e_target = getCommentList().createElement("target");
-        e_message.appendChild(e_target);
-        Text t_target = getCommentList().createTextNode(target);
-        e_target.appendChild(t_target);
-        // 			</target>
-        // 			<scope>
-        Element e_scope = getCommentList().createElement("scope");
-        e_message.appendChild(e_scope);
-        Text t_scope = getCommentList().createTextNode(scope);
-        e_scope.appendChild(t_scope);
-        // 			</scope>
-        // 			<whisper>
-        Element e_whisper = getCommentList().createElement("whisper");
-        e_message.appendChild(e_whisper);
-        Text t_whisper = getCommentList().createTextNode(whisper);
-        e_whisper.appendChild(t_whisper);
-        // 			</whisper>
-        // 		</message>
-        // 		<style>
-        Element e_style = getCommentList().createElement("style");
-        e_comment.appendChild(e_style);
-        // 			<fontsize>
-        Element e_fontsize = getCommentList().createElement("fontsize");
-        e_style.appendChild(e_fontsize);
-        Text t_fontsize = getCommentList().createTextNode(fontsize);
-        e_fontsize.appendChild(t_fontsize);
-        // 			</fontsize>
-        // 			<place>
-        Element e_place = getCommentList().createElement("place");
-        e_style.appendChild(e_place);
-        Text t_place = getCommentList().createTextNode(place);
-        e_place.appendChild(t_place);
-        // 			</place>
-        // 		</style>
+    /**
+     * append a comment to the list
+     *
+     * @param comment
+     */
+    public synchronized void addComment(Comment comment) {
+        comments.add(comment);
+        if (timeIndex != null && comment.isToAll()) {
+            timeIndex.add(new Entry(comment, comments.size() - 1));
+        }
+    }
+
+    /**
+     * return comments sent to all users in order of time
+     *
+     * @param after the last entry returned (Entry.before(time) to start at the time)
+     * @param until the last time returned
+     * @return entries
+     */
+    public synchronized List<Entry> entriesUntil(Entry after, double until) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : getTimeIndex().tailSet(after, false)) {
+            if (entry.getTime() > until) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     *
+     * @param after
+     * @return the entry next to the param 'after' (null if none)
+     */
+    public synchronized Entry nextEntry(Entry after) {
+        return getTimeIndex().higher(after);
+    }
+
+    private TreeSet<Entry> getTimeIndex() {
+        if (timeIndex == null) {
+            timeIndex = new TreeSet<>();
+            for (int i = 0; i < comments.size(); i++) {
+                if (comments.get(i).isToAll()) {
+                    timeIndex.add(new Entry(comments.get(i), i));
+                }
+            }
+        }
+        return timeIndex;
     }
 
     /**
@@ -319,61 +433,167 @@ public class CommentList {
      * @return sendData
      */
     static public String createSendData(String sendMessage) {
-        String sendData = null;
-
-        String[] array = sendMessage.split(",");
-        // user tag
-        String user_id = array[0];
-        String role = array[1];
-        String from = array[2];
-        // message tag
-        String time = array[3];
-        String value = array[4];
-        String type = array[5];
-        String target = array[6];
-        String scope = array[7];
-        String whisper = array[8];
-        // style tag
-        String fontsize = array[9];
-        String place = array[10];
-
-        sendData = "<data>"
-                + "<comment>"
-                + "<user>"
-                + "<user_id>" + user_id + "</user_id>"
-                + "<role>" + role + "</role>"
-                + "<from>" + from + "</from>"
-                + "</user>"
-                + "<message>"
-                + "<time>" + time + "</time>"
-                + "<value>" + value + "</value>"
-                + "<type>" + type + "</type>"
-                + "<target>" + target + "</target>"
-                + "<scope>" + scope + "</scope>"
-                + "<whisper>" + whisper + "</whisper>"
-                + "</message>"
-                + "<style>"
-                + "<fontsize>" + fontsize + "</fontsize>"
-                + "<place>" + place + "</place>"
-                + "</style>"
-                + "</comment>"
-                + "</data>";
-
-        return sendData;
+        return createSendData(Comment.parse(sendMessage));
+    }
+
+    /**
+     * translate a comment into xml
+     *
+     * @param comment
+     * @return sendData
+     */
+    static public String createSendData(Comment comment) {
+        StringWriter sw = new StringWriter();
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(sw);
+            writer.writeStartElement("data");
+            comment.write(writer);
+            writer.writeEndElement();
+            writer.close();
+        } catch (XMLStreamException e) {
+            logger.error("Couldn't translate a comment : {}", comment.getValue());
+        }
+        return sw.toString();
     }
 
     /**
      * write a comment list to a file<br>
      * this method is called when the last user who has been reading the comment list ends the viewing
+     * or the server shuts down<br>
+     * if the file is the one last written, only new comments are appended, 
+     * otherwise the whole list is written to a temporary file which then replaces it
      *
-     * @throws TransformerConfigurationException
-     * @throws TransformerException
+     * @throws IOException
+     * @throws XMLStreamException
      */
-    public void writeCommentListToFile() throws TransformerConfigurationException, TransformerException {
+    public synchronized void writeCommentListToFile() throws IOException, XMLStreamException {
         File outfile = new File(commentListDir + "/" + getFileName());
-        TransformerFactory tfactory = TransformerFactory.newInstance();
-        Transformer transformer = tfactory.newTransformer();
-        transformer.transform(new DOMSource(getCommentList()), new StreamResult(outfile));
+        if (rootEndPosition >= 0 && outfile.length() == rootEndPosition + ROOT_END.length) {
+            if (persistedCount < comments.size()) {
+                appendCommentsToFile(outfile);
+            }
+        } else {
+            replaceFile(outfile);
+        }
+        persistedCount = comments.size();
+    }
+
+    /**
+     * write comments added since the last write over &lt;/root&gt;
+     *
+     * @param outfile
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void appendCommentsToFile(File outfile) throws IOException, XMLStreamException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(bytes, "UTF-8");
+        for (Comment comment : comments.subList(persistedCount, comments.size())) {
+            comment.write(writer);
+        }
+        writer.flush();
+        int length = bytes.size();
+        bytes.write(ROOT_END);
+
+        try (FileChannel channel = FileChannel.open(outfile.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long position = rootEndPosition;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+        rootEndPosition += length;
+        logger.info("Appended {} comments to the file : {}", comments.size() - persistedCount, commentListDir + "/" + getFileName());
+    }
+
+    /**
+     * write the whole comment list to a temporary file and rename it to the comment list file
+     *
+     * @param outfile
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void replaceFile(File outfile) throws IOException, XMLStreamException {
+        Path target = outfile.toPath();
+        Path temp = target.resolveSibling(getFileName() + ".tmp");
+        long rootEnd;
+        // if this fails, whatever the file is then gets replaced again next time
+        rootEndPosition = -1;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            // <root>
+            writer.writeStartElement("root");
+            // 	<createdTime>
+            writer.writeStartElement("createdTime");
+            writer.writeCharacters(Long.toString(createdTime));
+            writer.writeEndElement();
+            for (Comment comment : comments) {
+                comment.write(writer);
+            }
+            writer.flush();
+            out.flush();
+            rootEnd = channel.position();
+            out.write(ROOT_END);
+            out.flush();
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        rootEndPosition = rootEnd;
         logger.info("Wrote comments in memory to the file : {}", commentListDir + "/" + getFileName());
     }
+
+    /**
+     * a comment in the time-sorted index<br>
+     * comments posted at the same time are sorted in the order they were posted
+     */
+    public static class Entry implements Comparable<Entry> {
+
+        private final double time;
+        private final long sequence;
+        private final Comment comment;
+
+        private Entry(Comment comment, long sequence) {
+            this.time = comment.getSeconds();
+            this.sequence = sequence;
+            this.comment = comment;
+        }
+
+        private Entry(double time) {
+            this.time = time;
+            this.sequence = -1;
+            this.comment = null;
+        }
+
+        /**
+         * @param time
+         * @return an entry placed before all comments posted at the time
+         */
+        public static Entry before(double time) {
+            return new Entry(time);
+        }
+
+        public double getTime() {
+            return this.time;
+        }
+
+        public Comment getComment() {
+            return this.comment;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Double.compare(time, other.time);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
 }
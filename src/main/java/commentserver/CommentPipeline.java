@@ -0,0 +1,83 @@
+package commentserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class passes incoming comments through the filters listed in <i>config.properties</i> in order.<br>
+ * Filters are given as class names (the package may be omitted for built-in filters such as NgWordFilter),
+ * and a comment is dropped as soon as one of them rejects it.
+ *
+ * @author Hiroki Sawano
+ * @see CommentFilter
+ * @see NgWordFilter
+ * @see SpamFilter
+ * @since 1.0
+ */
+public class CommentPipeline {
+
+    private static Logger logger = LogManager.getLogger();
+
+    private static CommentFilter[] filters = new CommentFilter[0];
+
+    /**
+     * instantiate the filters according to <i>config.properties</i>
+     *
+     * @throws ReflectiveOperationException if a filter can't be instantiated
+     */
+    public static void init() throws ReflectiveOperationException {
+        List<CommentFilter> list = new ArrayList<>();
+        for (String name : Config.getInstance().getCommentFilters().split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (name.indexOf('.') < 0) {
+                name = CommentPipeline.class.getPackage().getName() + "." + name;
+            }
+            list.add(Class.forName(name).asSubclass(CommentFilter.class).getDeclaredConstructor().newInstance());
+            logger.info("comment filter : {}", name);
+        }
+        filters = list.toArray(new CommentFilter[list.size()]);
+    }
+
+    /**
+     * use the given filters instead of those in <i>config.properties</i>
+     *
+     * @param filters
+     */
+    static void init(CommentFilter... filters) {
+        CommentPipeline.filters = filters;
+    }
+
+    /**
+     * pass a comment through the filters
+     *
+     * @param sender
+     * @param comment
+     * @return the comment to distribute, or null if a filter dropped it
+     */
+    public static Comment filter(CommentServerThread sender, Comment comment) {
+        for (CommentFilter filter : filters) {
+            comment = filter.filter(sender, comment);
+            if (comment == null) {
+                Metrics.incrementCommentsDropped();
+                return null;
+            }
+        }
+        return comment;
+    }
+
+    /**
+     * tell the filters a connection is closed
+     *
+     * @param sender
+     */
+    public static void disconnected(CommentServerThread sender) {
+        for (CommentFilter filter : filters) {
+            filter.disconnected(sender);
+        }
+    }
+}
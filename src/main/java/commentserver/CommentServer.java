@@ -1,7 +1,18 @@
 package commentserver;
 
-import java.net.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -9,15 +20,21 @@ import org.apache.logging.log4j.Logger;
  * This application is a socket server that communicates with clients whose purpose is to allow users to comments on videos they are watching. 
  * The server performs the following operations in order : 
  * 1. Reading the configuration (refer to config.properties)
- * 2. Accepting clients' requests
- * 3. Receiving a video id
+ * 2. Accepting clients' requests on acceptor threads and handing them to handshake readers
+ * 3. Receiving a video id without blocking and starting a thread per user
  * 4. Sending a comment to users who are watching the same video every time the server receives requests from clients
  * 
+ * On SIGTERM, the server stops accepting, writes every comment list in memory to its file before touching any client, 
+ * stops receiving and closes the connections with a reason within shutdown_timeout. 
+ * The next process warms up the rooms that were open.
+ * 
  * @author Hiroki Sawano
- * @see ServerSocket
- * @see Socket
+ * @see Acceptor
+ * @see ServerSocketChannel
  * @see Logger
  * @see Config
+ * @see PolicyServer
+ * @see Metrics
  * @see Environment
  * @see UserManagement
  * @see CommentServerThread
@@ -25,8 +42,13 @@ import org.apache.logging.log4j.Logger;
  */
 public class CommentServer {
 
-    private static ServerSocket commentServerSocket;
-    private static Socket client;
+    // a reason sent to clients when the server shuts down
+    public static final String SHUTDOWN_REASON = "Server Shutdown";
+
+    private static final List<Acceptor> acceptors = new ArrayList<>();
+    private static HandshakeReader[] handshakeReaders;
+    private static PolicyServer policyServer;
+    private static volatile boolean shuttingDown = false;
     private static Logger logger = LogManager.getLogger();
 
     public static void main(String[] args) {
@@ -34,22 +56,243 @@ public class CommentServer {
             Config config = Config.getInstance();
             config.init();
 
-            commentServerSocket = new ServerSocket(config.getPort());
+            PolicyFile.init();
+            CommentPipeline.init();
+            if (config.getPolicyPort() > 0) {
+                policyServer = new PolicyServer(config.getPolicyPort());
+                policyServer.start();
+            }
+            if (config.getMetricsInterval() > 0) {
+                long interval = config.getMetricsInterval() * 1000L;
+                new Timer("Metrics", true).schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        Metrics.log();
+                    }
+                }, interval, interval);
+            }
+
+            warmRooms(config);
+
+            handshakeReaders = new HandshakeReader[Math.max(1, config.getHandshakeThreads())];
+            for (int i = 0; i < handshakeReaders.length; i++) {
+                handshakeReaders[i] = new HandshakeReader("HandshakeReader-" + i, config.getHandshakeTimeout());
+                handshakeReaders[i].start();
+            }
+            startAcceptors(config);
+            Runtime.getRuntime().addShutdownHook(new Thread(CommentServer::shutdown, "Shutdown"));
             
-            logger.info("Comment server started");
+            long timeToReady = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            Metrics.setTimeToReady(timeToReady);
+            logger.info("Comment server started (time to ready was {} ms)", timeToReady);
             
-            while (true) {
-                client = commentServerSocket.accept();
-                CommentServerThread thread = new CommentServerThread(client);
+            for (Acceptor acceptor : acceptors) {
+                acceptor.join();
             }
         } catch (IOException e) {
-            logger.error("io error");
+            if (!shuttingDown) {
+                logger.error("io error");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ReflectiveOperationException e) {
+            logger.error("Couldn't instantiate a comment filter : {}", e.toString());
         } finally {
+            closeAcceptors();
+        }
+    }
+
+    /**
+     * start acceptor threads listening on the port<br>
+     * each acceptor has its own socket if SO_REUSEPORT is available, otherwise they share one.
+     * 
+     * @param config 
+     * @throws IOException 
+     */
+    private static void startAcceptors(Config config) throws IOException {
+        int acceptorThreads = Math.max(1, config.getAcceptorThreads());
+        boolean reusePort = acceptorThreads > 1 && Acceptor.isReusePortSupported();
+
+        ServerSocketChannel serverChannel = null;
+        for (int i = 0; i < acceptorThreads; i++) {
+            if (serverChannel == null || reusePort) {
+                serverChannel = Acceptor.open(config.getPort(), config.getAcceptBacklog(), reusePort);
+            }
+            acceptors.add(new Acceptor("Acceptor-" + i, serverChannel, handshakeReaders));
+        }
+        for (Acceptor acceptor : acceptors) {
+            acceptor.start();
+        }
+        logger.info("{} acceptors started on port {} ({})", acceptorThreads, config.getPort(), 
+                reusePort ? "SO_REUSEPORT" : "shared socket");
+    }
+
+    private static void closeAcceptors() {
+        for (Acceptor acceptor : acceptors) {
             try {
-                commentServerSocket.close();
+                acceptor.close();
             } catch (IOException e) {
                 logger.error("io error");
             }
         }
     }
+
+    /**
+     * 
+     * @return true after the server started shutting down
+     */
+    public static boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * load comment lists into memory in parallel before accepting clients<br>
+     * they are the ones the previous process had in memory, those listed in the hot list file 
+     * and the most recently modified ones.
+     * 
+     * @param config 
+     */
+    private static void warmRooms(Config config) {
+        Set<String> movieIds = new LinkedHashSet<>();
+        try {
+            movieIds.addAll(RoomManagement.readMovieIds(new File(config.getCommentListDir(), config.getWarmRoomsFile())));
+            if (!config.getPrewarmListFile().isEmpty()) {
+                movieIds.addAll(RoomManagement.readMovieIds(new File(config.getPrewarmListFile())));
+            }
+            if (config.getPrewarmCount() > 0) {
+                movieIds.addAll(RoomManagement.recentMovieIds(new File(config.getCommentListDir()), config.getPrewarmCount()));
+            }
+        } catch (IOException e) {
+            logger.error("Couldn't list comment lists to warm up");
+        }
+        if (movieIds.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int warmed = RoomManagement.warmRooms(new ArrayList<>(movieIds), config.getPrewarmParallelism());
+        long timeToWarm = System.currentTimeMillis() - start;
+        Metrics.setTimeToWarm(timeToWarm);
+        logger.info("Warmed up {} of {} comment lists in {} ms", warmed, movieIds.size(), timeToWarm);
+
+        long ttl = config.getWarmRoomTtl();
+        if (ttl > 0) {
+            long interval = Math.max(1000, ttl / 10);
+            new Timer("RoomEvictor", true).schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    int evicted = RoomManagement.evictIdleRooms(ttl);
+                    if (evicted > 0) {
+                        logger.info("Removed {} comment lists nobody watched for {} ms", evicted, ttl);
+                    }
+                }
+            }, interval, interval);
+        }
+    }
+
+    /**
+     * This method is called by the shutdown hook and performs the following operations in order : 
+     * 1. Stopping accepting clients
+     * 2. Writing all comment lists in memory to the files in parallel, before anything may block on a client
+     * 3. Stopping receiving comments and waiting for those being handled until half of shutdown_timeout
+     * 4. Writing the comments received meanwhile
+     * 5. Closing connections with a reason until shutdown_timeout, and without one after that
+     */
+    private static void shutdown() {
+        shuttingDown = true;
+        long start = System.currentTimeMillis();
+        Config config = Config.getInstance();
+
+        logger.info("Comment server is shutting down");
+
+        closeAcceptors();
+        for (HandshakeReader handshakeReader : handshakeReaders) {
+            handshakeReader.close();
+        }
+        try {
+            if (policyServer != null) {
+                policyServer.close();
+            }
+        } catch (IOException e) {
+            logger.error("io error");
+        }
+
+        // a client which stops reading can block a thread writing to it while holding the UserManagement lock,
+        // so the comment lists are saved before touching clients and the lock
+        try {
+            RoomManagement.writeWarmRooms(new File(config.getCommentListDir(), config.getWarmRoomsFile()));
+        } catch (IOException e) {
+            logger.error("Couldn't write {}", config.getWarmRoomsFile());
+        }
+        RoomManagement.writeAllCommentLists(Runtime.getRuntime().availableProcessors());
+
+        // wait for threads handling a received comment to finish it
+        List<CommentServerThread> threads = CommentServerThread.getConnections();
+        for (CommentServerThread thread : threads) {
+            try {
+                thread.shutdownInput();
+            } catch (IOException e) {
+                logger.error("io error");
+            }
+        }
+        long deadline = start + config.getShutdownTimeout();
+        for (CommentServerThread thread : threads) {
+            try {
+                thread.join(Math.max(1, start + config.getShutdownTimeout() / 2 - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // only comments received since the first write are appended
+        int written = RoomManagement.writeAllCommentLists(Runtime.getRuntime().availableProcessors());
+
+        int closed = closeConnections(threads, deadline);
+
+        Metrics.log();
+        logger.info("Comment server stopped ({} comment lists written, {} of {} connections closed with the reason in {} ms)", 
+                written, closed, threads.size(), System.currentTimeMillis() - start);
+
+        // log4j2.xml disables its own shutdown hook so that the lines above are written
+        LogManager.shutdown();
+    }
+
+    /**
+     * send the shutdown reason to clients on other threads, 
+     * and close the connections still being written at the deadline without it
+     *
+     * @param threads
+     * @param deadline System.currentTimeMillis() by which they are closed
+     * @return the number of connections closed with the reason
+     */
+    private static int closeConnections(List<CommentServerThread> threads, long deadline) {
+        AtomicInteger closed = new AtomicInteger();
+        ExecutorService closers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "Closer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (CommentServerThread thread : threads) {
+            closers.execute(() -> {
+                try {
+                    thread.close(SHUTDOWN_REASON);
+                    closed.incrementAndGet();
+                } catch (IOException e) {
+                    logger.error("io error");
+                }
+            });
+        }
+        closers.shutdown();
+        try {
+            if (!closers.awaitTermination(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                for (CommentServerThread thread : threads) {
+                    thread.abort();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return closed.get();
+    }
 }
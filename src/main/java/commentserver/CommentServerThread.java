@@ -1,28 +1,41 @@
 package commentserver;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
 import java.net.Socket;
-import javax.xml.transform.TransformerException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * If a presentation implementation is written as a flash application, this thread returns a policy file when a client connects to the server.
- * Afterwards, it receives a movie id from the client and keep running as long as it has the connection with the client.
+ * This thread is started after HandshakeReader receives a movie id from a client, and keeps running as long as it has the connection with the client.
  * While running, it accepts comments from the client, passing them to those who are watching the same video.
  * 
  * @author Hiroki Sawano
- * @see Socket
+ * @see SocketChannel
+ * @see ChannelStreams
  * @see Logger
  * @see BufferedReader
  * @see InputStreamReader
  * @see PrintWriter
  * @see OutputStreamWriter
  * @see CommentList
+ * @see RoomManagement
  * @see Environment
  * @see UserManagement
  * @since 1.0
@@ -31,12 +44,33 @@ public class CommentServerThread extends Thread {
 
     private static Logger logger = LogManager.getLogger();
 
+    // a movie id followed by this requires the server to replay archived comments
+    public static final String REPLAY_SUFFIX = "#replay";
+    // a message starting with this is a control message rather than a comment
+    public static final String CONTROL_PREFIX = "#";
+
+    // threads writing for timer tasks, which must not block the timer thread
+    private static final ExecutorService writers = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // running threads, which are listed without the lock UserManagement holds while writing to clients
+    private static final Set<CommentServerThread> connections = ConcurrentHashMap.newKeySet();
+
+    private SocketChannel channel;
     private Socket socket;
+    private InputStream rawIn;
     private BufferedReader in;
     private PrintWriter out;
 
     private int userId = -1;
     private CommentList commentList;
+    private boolean isReplay = false;
+    private Replay replay = null;
+    private final IdleMonitor idleMonitor;
+    // true while data passed to writeLater is being written
+    private final AtomicBoolean writing = new AtomicBoolean(false);
 
     private String receivedMessage = "";
     private String movieId;
@@ -45,14 +79,26 @@ public class CommentServerThread extends Thread {
     /**
      * Constructor
      *
-     * @param socket
-     * @throws IOException
+     * @param channel a connection in blocking mode
+     * @param firstMessage a movie id the client sent
+     * @param received bytes the client sent after the first message
+     */
+    public CommentServerThread(SocketChannel channel, String firstMessage, byte[] received) {
+        this.channel = channel;
+        this.socket = channel.socket();
+        this.receivedMessage = firstMessage;
+        this.ipAddress = socket.getInetAddress().getHostAddress();
+        this.idleMonitor = new IdleMonitor(this, socket);
+        // the streams of the socket would block writes while the client is read on Java 8
+        this.rawIn = new SequenceInputStream(new ByteArrayInputStream(received), idleMonitor.monitor(ChannelStreams.in(channel)));
+    }
+
+    /**
+     *
+     * @return threads connected to clients
      */
-    public CommentServerThread(Socket socket) throws IOException {
-        this.socket = socket;
-        this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), "UTF8"));
-        this.out = new PrintWriter(new OutputStreamWriter(this.socket.getOutputStream(), "UTF8"), true);
-        this.start();
+    public static List<CommentServerThread> getConnections() {
+        return new ArrayList<>(connections);
     }
 
     /**
@@ -63,6 +109,42 @@ public class CommentServerThread extends Thread {
         return out;
     }
 
+    /**
+     * write data on a writer thread, so that the caller never blocks on a slow client<br>
+     * nothing is written while the data passed last time is still being written.
+     *
+     * @param data
+     * @return false if the data was skipped
+     */
+    public boolean writeLater(String data) {
+        PrintWriter writer = out;
+        if (writer == null || !writing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            writers.execute(() -> {
+                try {
+                    writer.print(data);
+                    writer.flush();
+                } finally {
+                    writing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writing.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 
+     * @return true if archived comments are sent according to the playback position
+     */
+    public boolean isReplay() {
+        return isReplay;
+    }
+
     /**
      * 
      * @return userId 
@@ -80,92 +162,101 @@ public class CommentServerThread extends Thread {
     }
 
     /**
-     * Communicates with clients, receiving a movie id and comment, sending the
-     * comment to those whose movie ids are the same.
-     * 
-     * @see BufferedReader
-     * @see PrintWriter
-     * @see Environment
-     * @see UserManagement
-     * @see Socket
+     * stop receiving comments from the client<br>
+     * this method is called while the server is shutting down.
+     *
+     * @throws IOException
      */
-    @Override
-    public void run() {
-        ipAddress = this.socket.getInetAddress().getHostAddress();
+    public void shutdownInput() throws IOException {
+        socket.shutdownInput();
+    }
 
-        logger.info("{} connected", ipAddress);
+    /**
+     * send a reason why the connection is closed and close it
+     *
+     * @param reason
+     * @throws IOException
+     */
+    public void close(String reason) throws IOException {
+        if (out != null) {
+            out.print(reason + "\0");
+            out.flush();
+            out.close();
+        }
+        socket.close();
+    }
 
+    /**
+     * close the connection without a reason, which also ends a write blocked on the client
+     */
+    public void abort() {
         try {
-            int c = in.read();
-            while (c != '\0' && c >= 0) {
-                receivedMessage += (char) c;
-                c = in.read();
+            socket.close();
+        } catch (IOException e) {
+            logger.error("io error");
+        }
+    }
 
-                if (c < 0) {
-                    break;
-                }
+    /**
+     * Adds the client to the users watching the movie and sends its comment list.<br>
+     * This method runs on this thread, so a slow client delays nobody else.
+     * 
+     * @return true if the client joined
+     * @see RoomManagement
+     * @see UserManagement
+     */
+    private boolean joinMovie() {
+        try {
+            in = new BufferedReader(new InputStreamReader(rawIn, "UTF8"));
+            out = new PrintWriter(new OutputStreamWriter(idleMonitor.monitor(ChannelStreams.out(channel)), "UTF8"), true);
+
+            movieId = receivedMessage;
+            if (movieId.endsWith(REPLAY_SUFFIX)) {
+                movieId = movieId.substring(0, movieId.length() - REPLAY_SUFFIX.length());
+                isReplay = true;
             }
-            if (c >= 0) {
-                // if a client requires the policy file
-                if (receivedMessage.startsWith("<policy-file-request/>")) {
-                    logger.info("{} required the policy file", ipAddress);
-
-                    // send the policy file in xml
-                    out.println("<?xml version=\"1.0\"?><!DOCTYPE cross-domain-policy SYSTEM \"/xml/dtds/cross-domain-policy.dtd\">"
-                            + "<cross-domain-policy>"
-                            + "<site-control permitted-cross-domain-policies=\"master-only\"/>"
-                            + "<allow-access-from domain=" + '"' + "*" + '"' + " to-ports=" + '"' + "*" + '"' + "/>"
-                            + "</cross-domain-policy>");
-                } else {
-                    movieId = receivedMessage;
-
-                    logger.info("{} accessed {}", ipAddress, movieId);
-
-                    commentList = new CommentList(movieId);
-
-                    // add a new user
-                    userId = UserManagement.addUser(this, movieId, commentList.getCommentList());
-
-                    // can't accept a user anymore
-                    if (userId == UserManagement.getMaxNumUser()) {
-                        throw new RegisterException();
-                    }
 
-                    logger.info("{} 's user ID is {}", ipAddress, userId);
+            logger.info("{} accessed {}{}", ipAddress, movieId, isReplay ? " (replay)" : "");
 
-                    commentList.addElapsedTime(new Long(commentList.getElapsedTime()).toString());
-                    out.print(commentList + "\0");
-                    out.flush();
+            if (CommentServer.isShuttingDown()) {
+                out.print(CommentServer.SHUTDOWN_REASON + "\0");
+                out.flush();
+                return false;
+            }
 
-                    logger.info("{} (user ID:{}) received a comment list (elapsed time was {})", ipAddress, userId, commentList.getElapsedTime());
+            commentList = RoomManagement.joinRoom(movieId);
 
-                    commentList.removeElapsedTime();
+            // add a new user
+            userId = UserManagement.addUser(this, movieId, commentList);
 
-                    // receive comments
-                    while (true) {
-                        receivedMessage = "";
+            // the comment lists are being written
+            if (userId == -1) {
+                out.print(CommentServer.SHUTDOWN_REASON + "\0");
+                out.flush();
+                return false;
+            }
 
-                        c = in.read();
-                        while (c != '\0' && c >= 0) {
-                            receivedMessage += (char) c;
-                            c = in.read();
+            // can't accept a user anymore
+            if (userId == UserManagement.getMaxNumUser()) {
+                throw new RegisterException();
+            }
 
-                            if (c < 0) {
-                                break;
-                            }
-                        }
-                        if (c < 0) {
-                            break;
-                        }
+            logger.info("{} 's user ID is {}", ipAddress, userId);
 
-                        logger.info("{} (user ID:{}, movie ID:{}) sent the following comment : {}", ipAddress, userId, movieId, receivedMessage);
+            // in replay mode comments are sent as the movie is played
+            // the list is printed at once, since comments may already be sent to this user from other threads
+            long elapsedTime = commentList.getElapsedTime();
+            StringWriter list = new StringWriter();
+            commentList.writeCommentList(list, elapsedTime, !isReplay);
+            out.print(list.append('\0').toString());
+            out.flush();
 
-                        // distribute the received comment to users who are watching the same movie
-                        UserManagement.sendComment(movieId, CommentList.createSendData(receivedMessage));
-                        commentList.addComment(receivedMessage);
-                    }
-                }
+            logger.info("{} (user ID:{}) received a comment list (elapsed time was {})", ipAddress, userId, elapsedTime);
+
+            if (isReplay) {
+                replay = new Replay(this, commentList);
             }
+            return true;
         } catch (RegisterException e) {
             logger.error("{} (user ID:{}) exceeded the maximum number of users({})", ipAddress, userId, UserManagement.getMaxNumUser());
 
@@ -173,25 +264,151 @@ public class CommentServerThread extends Thread {
             out.flush();
         } catch (Exception e) {
             logger.error("exception");
+        }
+        return false;
+    }
+
+    /**
+     * Communicates with clients, receiving comments and sending them 
+     * to those whose movie ids are the same.
+     * 
+     * @see BufferedReader
+     * @see PrintWriter
+     * @see Environment
+     * @see UserManagement
+     * @see Socket
+     */
+    @Override
+    public void run() {
+        logger.info("{} connected", ipAddress);
+
+        connections.add(this);
+        idleMonitor.start();
+        try {
+            if (!joinMovie()) {
+                return;
+            }
+
+            // receive comments
+            while (true) {
+                receivedMessage = "";
+
+                int c = in.read();
+                while (c != '\0' && c >= 0) {
+                    receivedMessage += (char) c;
+                    c = in.read();
+
+                    if (c < 0) {
+                        break;
+                    }
+                }
+                if (c < 0) {
+                    break;
+                }
+
+                if (receivedMessage.startsWith(CONTROL_PREFIX)) {
+                    receiveControl(receivedMessage);
+                    continue;
+                }
+
+                logger.info("{} (user ID:{}, movie ID:{}) sent the following comment : {}", ipAddress, userId, movieId, receivedMessage);
+
+                // moderate the received comment
+                Comment comment = CommentPipeline.filter(this, Comment.parse(receivedMessage));
+                if (comment == null) {
+                    logger.info("{} (user ID:{}, movie ID:{}) comment was dropped by a filter", ipAddress, userId, movieId);
+                    continue;
+                }
+
+                // distribute the received comment to users who are watching the same movie
+                UserManagement.sendComment(userId, movieId, comment, CommentList.createSendData(comment));
+                commentList.addComment(comment);
+            }
+        } catch (Exception e) {
+            logger.error("exception");
         } finally {
-            logger.info("{} (user ID:{}) disconnected", ipAddress, userId);
+            disconnect();
+        }
+    }
+
+    /**
+     * release the user, the comment list and the connection
+     */
+    private void disconnect() {
+        logger.info("{} (user ID:{}) disconnected", ipAddress, userId);
+
+        idleMonitor.stop();
+        connections.remove(this);
+        if (replay != null) {
+            replay.stop();
+        }
+        CommentPipeline.disconnected(this);
 
+        // while shutting down, CommentServer writes the comment lists and closes the connections
+        if (!CommentServer.isShuttingDown() || userId == -1) {
             try {
-                if (movieId != null) {
+                if (commentList != null) {
                     // the last user renews the comment file
-                    if (UserManagement.activeUsers(movieId) == 1) {
-                        commentList.writeCommentListToFile();
-                    }
+                    RoomManagement.leaveRoom(movieId);
                 }
-                if (userId != -1) {
+                if (userId != -1 && userId < UserManagement.getMaxNumUser()) {
                     UserManagement.removeUser(userId);
                 }
-                out.close();
-                in.close();
+                if (out != null) {
+                    out.close();
+                }
+                rawIn.close();
                 socket.close();
-            } catch (TransformerException | IOException ex) {
+            } catch (IOException ex) {
                 logger.error("exception");
             }
         }
     }
+
+    /**
+     * handle a control message<br>
+     * message example:<br>
+     * #seek,12.34 (the movie is played from 12.34 seconds)<br>
+     * #pause,56.78 (the movie is paused at 56.78 seconds)<br>
+     * #ping (the client sees if the server is alive)<br>
+     * #pong (the client answers a ping, which has already been recorded by IdleMonitor)<br>
+     * #join,user123,STUDENT (the client declares its user_id and role to receive whispers and scoped comments)
+     *
+     * @param message
+     */
+    private void receiveControl(String message) {
+        String[] array = message.substring(CONTROL_PREFIX.length()).split(",");
+        try {
+            switch (array[0]) {
+                case "seek":
+                    if (replay != null) {
+                        replay.seek(Double.parseDouble(array[1]));
+                    }
+                    break;
+                case "pause":
+                    if (replay != null) {
+                        replay.pause(Double.parseDouble(array[1]));
+                    }
+                    break;
+                case "ping":
+                    out.print(IdleMonitor.PONG + "\0");
+                    out.flush();
+                    break;
+                case "pong":
+                    break;
+                case "join":
+                    if (UserManagement.registerUser(userId, array[1], array[2])) {
+                        logger.info("{} (user ID:{}) joined as {} ({})", ipAddress, userId, array[1], array[2]);
+                    } else {
+                        logger.warn("{} (user ID:{}) has already joined", ipAddress, userId);
+                    }
+                    break;
+                default:
+                    logger.warn("{} (user ID:{}) sent an unknown control message : {}", ipAddress, userId, message);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            logger.warn("{} (user ID:{}) sent a malformed control message : {}", ipAddress, userId, message);
+        }
+    }
 }
@@ -24,6 +24,31 @@ public class Config {
     private int port;
     private int maxNumUser;
     private String commentListDir;
+    private String policyDomains;
+    private String policyPorts;
+    private int policyPort;
+    private int metricsInterval;
+    private String warmRoomsFile;
+    private int shutdownTimeout;
+    private int prewarmCount;
+    private String prewarmListFile;
+    private int prewarmParallelism;
+    private int warmRoomTtl;
+    private int timerTick;
+    private int timerWheelSize;
+    private int readIdleTimeout;
+    private int writeTimeout;
+    private int heartbeatInterval;
+    private int acceptorThreads;
+    private int acceptBacklog;
+    private int handshakeThreads;
+    private int handshakeTimeout;
+    private String commentFilters;
+    private String ngWordFile;
+    private String ngWordAction;
+    private int ngWordReloadInterval;
+    private int spamMinInterval;
+    private int spamDuplicateInterval;
     
     private static Logger logger = LogManager.getLogger();
 
@@ -56,8 +81,49 @@ public class Config {
             port = Integer.parseInt(properties.getProperty("port_num"));
             maxNumUser = Integer.parseInt(properties.getProperty("max_num_user"));
             commentListDir = properties.getProperty("comment_list_dir");
+            policyDomains = properties.getProperty("policy_domains", "*");
+            policyPorts = properties.getProperty("policy_ports", "*");
+            policyPort = Integer.parseInt(properties.getProperty("policy_port_num", "0"));
+            metricsInterval = Integer.parseInt(properties.getProperty("metrics_interval", "0"));
+            warmRoomsFile = properties.getProperty("warm_rooms_file", "warm_rooms.txt");
+            shutdownTimeout = Integer.parseInt(properties.getProperty("shutdown_timeout", "5000"));
+            prewarmCount = Integer.parseInt(properties.getProperty("prewarm_count", "0"));
+            prewarmListFile = properties.getProperty("prewarm_list_file", "");
+            prewarmParallelism = Integer.parseInt(properties.getProperty("prewarm_parallelism", 
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            warmRoomTtl = Integer.parseInt(properties.getProperty("warm_room_ttl", "600000"));
             
             logger.info("port_num : {} maxNumUser : {} commentListDir : {}", port, maxNumUser, commentListDir);
+            logger.info("policy_domains : {} policy_ports : {} policy_port_num : {} metrics_interval : {}", 
+                    policyDomains, policyPorts, policyPort, metricsInterval);
+            logger.info("warm_rooms_file : {} shutdown_timeout : {}", warmRoomsFile, shutdownTimeout);
+            logger.info("prewarm_count : {} prewarm_list_file : {} prewarm_parallelism : {} warm_room_ttl : {}", 
+                    prewarmCount, prewarmListFile, prewarmParallelism, warmRoomTtl);
+            timerTick = Integer.parseInt(properties.getProperty("timer_tick", "100"));
+            timerWheelSize = Integer.parseInt(properties.getProperty("timer_wheel_size", "512"));
+            logger.info("timer_tick : {} timer_wheel_size : {}", timerTick, timerWheelSize);
+            readIdleTimeout = Integer.parseInt(properties.getProperty("read_idle_timeout", "0"));
+            writeTimeout = Integer.parseInt(properties.getProperty("write_timeout", "0"));
+            heartbeatInterval = Integer.parseInt(properties.getProperty("heartbeat_interval", "0"));
+            logger.info("read_idle_timeout : {} write_timeout : {} heartbeat_interval : {}", 
+                    readIdleTimeout, writeTimeout, heartbeatInterval);
+            acceptorThreads = Integer.parseInt(properties.getProperty("acceptor_threads", "1"));
+            acceptBacklog = Integer.parseInt(properties.getProperty("accept_backlog", "50"));
+            handshakeThreads = Integer.parseInt(properties.getProperty("handshake_threads", 
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            handshakeTimeout = Integer.parseInt(properties.getProperty("handshake_timeout", "10000"));
+            logger.info("acceptor_threads : {} accept_backlog : {} handshake_threads : {} handshake_timeout : {}", 
+                    acceptorThreads, acceptBacklog, handshakeThreads, handshakeTimeout);
+            commentFilters = properties.getProperty("comment_filters", "");
+            logger.info("comment_filters : {}", commentFilters);
+            ngWordFile = properties.getProperty("ng_word_file", "");
+            ngWordAction = properties.getProperty("ng_word_action", "drop");
+            ngWordReloadInterval = Integer.parseInt(properties.getProperty("ng_word_reload_interval", "10000"));
+            logger.info("ng_word_file : {} ng_word_action : {} ng_word_reload_interval : {}", 
+                    ngWordFile, ngWordAction, ngWordReloadInterval);
+            spamMinInterval = Integer.parseInt(properties.getProperty("spam_min_interval", "0"));
+            spamDuplicateInterval = Integer.parseInt(properties.getProperty("spam_duplicate_interval", "0"));
+            logger.info("spam_min_interval : {} spam_duplicate_interval : {}", spamMinInterval, spamDuplicateInterval);
         } catch (FileNotFoundException ex) {
             logger.error("Could't find the config file");
         } catch (IOException ex) {
@@ -85,4 +151,179 @@ public class Config {
     public String getCommentListDir() {
         return commentListDir;
     }
+
+    /**
+     * @return comma separated domains the policy file allows access from.
+     */
+    public String getPolicyDomains() {
+        return policyDomains;
+    }
+
+    /**
+     * @return ports the policy file allows access to.
+     */
+    public String getPolicyPorts() {
+        return policyPorts;
+    }
+
+    /**
+     * @return a port number dedicated to policy file requests (0 if disabled).
+     */
+    public int getPolicyPort() {
+        return policyPort;
+    }
+
+    /**
+     * @return how often metrics are logged in seconds (0 if disabled).
+     */
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * @return a file in the comment list directory listing movies to warm up at startup.
+     */
+    public String getWarmRoomsFile() {
+        return warmRoomsFile;
+    }
+
+    /**
+     * @return how long the shutdown waits for threads handling comments in milliseconds.
+     */
+    public int getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * @return how many of the most recently modified comment lists are loaded at startup.
+     */
+    public int getPrewarmCount() {
+        return prewarmCount;
+    }
+
+    /**
+     * @return a file listing movies to load at startup (empty if not used).
+     */
+    public String getPrewarmListFile() {
+        return prewarmListFile;
+    }
+
+    /**
+     * @return the number of threads loading comment lists at startup.
+     */
+    public int getPrewarmParallelism() {
+        return prewarmParallelism;
+    }
+
+    /**
+     * @return how long a warmed room nobody joins is kept in memory in milliseconds.
+     */
+    public int getWarmRoomTtl() {
+        return warmRoomTtl;
+    }
+
+    /**
+     * @return how often the shared timer runs its tasks in milliseconds.
+     */
+    public int getTimerTick() {
+        return timerTick;
+    }
+
+    /**
+     * @return the number of buckets of the shared timer.
+     */
+    public int getTimerWheelSize() {
+        return timerWheelSize;
+    }
+
+    /**
+     * @return how long a connection may receive nothing in milliseconds (0 if disabled).
+     */
+    public int getReadIdleTimeout() {
+        return readIdleTimeout;
+    }
+
+    /**
+     * @return how long a write to a client may block in milliseconds (0 if disabled).
+     */
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * @return how long a connection may send nothing before a ping is sent in milliseconds (0 if disabled).
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * @return the number of threads accepting clients.
+     */
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * @return the maximum length of the queue of connections the kernel holds per server socket.
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * @return the number of threads receiving the first message from clients without blocking.
+     */
+    public int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+    /**
+     * @return how long to wait for the first message from a client in milliseconds.
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * @return the class names of the filters incoming comments pass through in order.
+     */
+    public String getCommentFilters() {
+        return commentFilters;
+    }
+
+    /**
+     * @return a path of the file listing NG words, one per line.
+     */
+    public String getNgWordFile() {
+        return ngWordFile;
+    }
+
+    /**
+     * @return what to do with a comment containing NG words (drop or mask).
+     */
+    public String getNgWordAction() {
+        return ngWordAction;
+    }
+
+    /**
+     * @return how often to check the NG word file for changes in milliseconds.
+     */
+    public int getNgWordReloadInterval() {
+        return ngWordReloadInterval;
+    }
+
+    /**
+     * @return the minimum interval between comments from a connection in milliseconds.
+     */
+    public int getSpamMinInterval() {
+        return spamMinInterval;
+    }
+
+    /**
+     * @return how long the same comment from a connection is dropped in milliseconds.
+     */
+    public int getSpamDuplicateInterval() {
+        return spamDuplicateInterval;
+    }
 }
@@ -0,0 +1,257 @@
+package commentserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This thread receives the first message of clients handed by acceptors without blocking.<br>
+ * All clients waiting for their first message are registered with one selector,
+ * so a client which sends nothing costs neither a thread nor a delay to the others.
+ * A policy file request is answered here with the pre-encoded policy file,
+ * and any other client is handed to its own CommentServerThread,
+ * which joins the movie and sends the comment list.
+ *
+ * @author Hiroki Sawano
+ * @see Acceptor
+ * @see CommentServerThread
+ * @see PolicyFile
+ * @since 1.0
+ */
+public class HandshakeReader extends Thread {
+
+    // the size of a buffer the first message is read into
+    private static final int BUFFER_SIZE = 256;
+
+    private static Logger logger = LogManager.getLogger();
+
+    private final Selector selector;
+    private final long handshakeTimeout;
+    // clients accepted but not registered with the selector yet
+    private final Queue<Handshake> accepted = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long nextExpiry = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     * @param handshakeTimeout milliseconds
+     * @throws IOException
+     */
+    public HandshakeReader(String name, long handshakeTimeout) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+        this.handshakeTimeout = TimeUnit.MILLISECONDS.toNanos(handshakeTimeout);
+    }
+
+    /**
+     * receive the first message of a client on this thread
+     *
+     * @param channel an accepted client
+     * @param acceptedTime System.nanoTime() when the client was accepted
+     */
+    public void register(SocketChannel channel, long acceptedTime) {
+        Metrics.incrementHandshakeQueue();
+        accepted.add(new Handshake(channel, acceptedTime));
+        selector.wakeup();
+    }
+
+    /**
+     * Reads first messages until the reader is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(handshakeTimeout) / 10));
+
+                Handshake handshake;
+                while ((handshake = accepted.poll()) != null) {
+                    Metrics.recordAcceptLatency(System.nanoTime() - handshake.acceptedTime);
+                    try {
+                        handshake.channel.configureBlocking(false);
+                        handshake.channel.register(selector, SelectionKey.OP_READ, handshake);
+                    } catch (IOException e) {
+                        logger.error("io error");
+                        handshake.close();
+                    }
+                }
+
+                List<Handshake> completed = new ArrayList<>();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handshake = (Handshake) key.attachment();
+                    if (read(handshake)) {
+                        key.cancel();
+                        completed.add(handshake);
+                    }
+                }
+                expire();
+
+                if (!completed.isEmpty()) {
+                    // cancelled keys are deregistered on the next selection, after which the channels can block
+                    selector.selectNow();
+                    for (Handshake done : completed) {
+                        complete(done);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("io error");
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * read what a client sent
+     *
+     * @param handshake
+     * @return true if the first message has been received
+     */
+    private boolean read(Handshake handshake) {
+        buffer.clear();
+        int length;
+        try {
+            length = handshake.channel.read(buffer);
+        } catch (IOException e) {
+            length = -1;
+        }
+        if (length < 0) {
+            handshake.close();
+            return false;
+        }
+        byte[] bytes = buffer.array();
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '\0') {
+                // comments sent right after the first message are passed on to the thread
+                handshake.received = Arrays.copyOfRange(bytes, i + 1, length);
+                return true;
+            }
+            handshake.firstMessage.write(bytes[i]);
+        }
+        return false;
+    }
+
+    /**
+     * close clients which haven't sent their first message within handshake_timeout
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        if (now < nextExpiry) {
+            return;
+        }
+        nextExpiry = now + handshakeTimeout / 10;
+        for (SelectionKey key : selector.keys()) {
+            Handshake handshake = (Handshake) key.attachment();
+            if (key.isValid() && now - handshake.acceptedTime >= handshakeTimeout) {
+                logger.info("{} sent nothing for {} ms", handshake.getIpAddress(), TimeUnit.NANOSECONDS.toMillis(handshakeTimeout));
+                handshake.close();
+            }
+        }
+    }
+
+    /**
+     * answer a policy file request or start a thread joining the movie
+     *
+     * @param handshake
+     */
+    private void complete(Handshake handshake) {
+        handshake.finish();
+        try {
+            String receivedMessage = handshake.firstMessage.toString("UTF8");
+            if (PolicyFile.isRequest(receivedMessage)) {
+                logger.info("{} required the policy file", handshake.getIpAddress());
+
+                // the policy file is smaller than a socket buffer, so this write doesn't wait
+                PolicyFile.send(handshake.channel);
+                handshake.channel.close();
+                return;
+            }
+            handshake.channel.configureBlocking(true);
+            new CommentServerThread(handshake.channel, receivedMessage, handshake.received).start();
+        } catch (IOException e) {
+            logger.error("io error");
+            handshake.close();
+        }
+    }
+
+    /**
+     * stop receiving first messages<br>
+     * the clients waiting are closed on this thread.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void closeAll() {
+        for (Handshake handshake; (handshake = accepted.poll()) != null;) {
+            handshake.close();
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Handshake) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("io error");
+        }
+    }
+
+    /**
+     * a client waiting for its first message
+     */
+    private static class Handshake {
+
+        final SocketChannel channel;
+        final long acceptedTime;
+        final ByteArrayOutputStream firstMessage = new ByteArrayOutputStream();
+        byte[] received = new byte[0];
+        private boolean finished = false;
+
+        Handshake(SocketChannel channel, long acceptedTime) {
+            this.channel = channel;
+            this.acceptedTime = acceptedTime;
+        }
+
+        String getIpAddress() {
+            return channel.socket().getInetAddress().getHostAddress();
+        }
+
+        /**
+         * stop counting the client as waiting
+         */
+        void finish() {
+            if (!finished) {
+                finished = true;
+                Metrics.decrementHandshakeQueue();
+            }
+        }
+
+        void close() {
+            finish();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("io error");
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package commentserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This singleton class runs tasks after a delay on a single thread shared by all connections.<br>
+ * Tasks are put in the buckets of a wheel which turns one bucket per tick, 
+ * so adding and cancelling a task costs O(1) however many tasks are waiting.
+ * A task may run up to one tick late and must not block, since it runs on the wheel's thread.
+ *
+ * @author Hiroki Sawano
+ * @see Config
+ * @since 1.0
+ */
+public class HashedWheelTimer {
+
+    private static HashedWheelTimer instance = null;
+    private static Logger logger = LogManager.getLogger();
+
+    private final long tickDuration;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    // tasks added since the last tick
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startTime;
+    private long tick = 0;
+
+    /**
+     * Generates only one instance according to <i>config.properties</i>.
+     *
+     * @return HashedWheelTimer object
+     */
+    public static synchronized HashedWheelTimer getInstance() {
+        if (instance == null) {
+            Config config = Config.getInstance();
+            instance = new HashedWheelTimer(config.getTimerTick(), TimeUnit.MILLISECONDS, config.getTimerWheelSize());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param tickDuration
+     * @param unit
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        this.tickDuration = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+
+        Thread worker = new Thread(this::run, "HashedWheelTimer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * run a task after a delay
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return a handle to cancel the task
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long sleep = startTime + (tick + 1) * tickDuration - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                long ticks = Math.max((timeout.deadline - startTime) / tickDuration, tick);
+                timeout.rounds = (ticks - tick) / wheel.size();
+                wheel.get((int) (ticks & mask)).add(timeout);
+            }
+
+            expire(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    /**
+     * run tasks whose rounds are over and keep the others in the bucket
+     *
+     * @param bucket
+     */
+    private void expire(List<Timeout> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                bucket.set(kept++, timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                logger.error("A timer task failed : {}", e.toString());
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    /**
+     * a handle to a task waiting in the wheel
+     */
+    public static class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * prevent the task from running
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
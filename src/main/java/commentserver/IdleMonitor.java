@@ -0,0 +1,219 @@
+package commentserver;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class closes a connection whose client is gone without closing it.<br>
+ * It records when the client last sent something and when a write to it started and ended, 
+ * and checks them on the shared HashedWheelTimer, so no thread or timer is allocated per connection.
+ * The connection is closed if nothing is received for read_idle_timeout or a write blocks for write_timeout.
+ * If heartbeat_interval is set, a ping is sent when nothing has been sent for that long, 
+ * which a living client answers with a pong. The ping is written on a writer thread, 
+ * so a client which stops reading never blocks the timer thread.
+ *
+ * @author Hiroki Sawano
+ * @see HashedWheelTimer
+ * @see CommentServerThread
+ * @see Config
+ * @since 1.0
+ */
+public class IdleMonitor {
+
+    // control messages for heartbeats
+    public static final String PING = CommentServerThread.CONTROL_PREFIX + "ping";
+    public static final String PONG = CommentServerThread.CONTROL_PREFIX + "pong";
+
+    private static Logger logger = LogManager.getLogger();
+
+    private final CommentServerThread thread;
+    private final Socket socket;
+    private final long readIdleTimeout;
+    private final long writeTimeout;
+    private final long heartbeatInterval;
+
+    private volatile long lastRead;
+    private volatile long lastWrite;
+    // when the write in progress started (0 if not writing)
+    private volatile long writingSince = 0;
+    private volatile boolean stopped = false;
+    private HashedWheelTimer.Timeout timeout = null;
+
+    /**
+     * Constructor
+     *
+     * @param thread
+     * @param socket
+     */
+    public IdleMonitor(CommentServerThread thread, Socket socket) {
+        this(thread, socket, Config.getInstance().getReadIdleTimeout(), Config.getInstance().getWriteTimeout(),
+                Config.getInstance().getHeartbeatInterval());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param thread
+     * @param socket
+     * @param readIdleTimeout milliseconds (0 disables)
+     * @param writeTimeout milliseconds (0 disables)
+     * @param heartbeatInterval milliseconds (0 disables)
+     */
+    IdleMonitor(CommentServerThread thread, Socket socket, long readIdleTimeout, long writeTimeout, long heartbeatInterval) {
+        this.thread = thread;
+        this.socket = socket;
+        this.readIdleTimeout = TimeUnit.MILLISECONDS.toNanos(readIdleTimeout);
+        this.writeTimeout = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+        this.heartbeatInterval = TimeUnit.MILLISECONDS.toNanos(heartbeatInterval);
+        this.lastRead = System.nanoTime();
+        this.lastWrite = lastRead;
+    }
+
+    /**
+     *
+     * @return true if any of the timeouts is configured
+     */
+    public boolean isEnabled() {
+        return readIdleTimeout > 0 || writeTimeout > 0 || heartbeatInterval > 0;
+    }
+
+    /**
+     * @param in
+     * @return a stream recording when something is received
+     */
+    public InputStream monitor(InputStream in) {
+        if (!isEnabled()) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                lastRead = System.nanoTime();
+                return c;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int length = super.read(b, off, len);
+                lastRead = System.nanoTime();
+                return length;
+            }
+        };
+    }
+
+    /**
+     * @param out
+     * @return a stream recording when writes start and end
+     */
+    public OutputStream monitor(OutputStream out) {
+        if (!isEnabled()) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writingSince = System.nanoTime();
+                try {
+                    out.write(b, off, len);
+                } finally {
+                    lastWrite = System.nanoTime();
+                    writingSince = 0;
+                }
+            }
+        };
+    }
+
+    /**
+     * start checking the connection
+     */
+    public synchronized void start() {
+        if (isEnabled() && !stopped) {
+            schedule(System.nanoTime());
+        }
+    }
+
+    /**
+     * stop checking the connection<br>
+     * this method is called when the connection is closed.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * schedule the next check at the earliest deadline
+     *
+     * @param now
+     */
+    private void schedule(long now) {
+        long next = Long.MAX_VALUE;
+        if (readIdleTimeout > 0) {
+            next = Math.min(next, lastRead + readIdleTimeout);
+        }
+        if (writeTimeout > 0) {
+            long since = writingSince;
+            next = Math.min(next, (since > 0 ? since : now) + writeTimeout);
+        }
+        if (heartbeatInterval > 0) {
+            next = Math.min(next, lastWrite + heartbeatInterval);
+        }
+        timeout = HashedWheelTimer.getInstance().newTimeout(this::check, next - now, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * close the connection if it is idle, otherwise send a ping if needed
+     */
+    private synchronized void check() {
+        if (stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        long since = writingSince;
+        if (readIdleTimeout > 0 && now - lastRead >= readIdleTimeout) {
+            close("received nothing for " + TimeUnit.NANOSECONDS.toMillis(now - lastRead) + " ms");
+            return;
+        }
+        if (writeTimeout > 0 && since > 0 && now - since >= writeTimeout) {
+            close("blocked writing for " + TimeUnit.NANOSECONDS.toMillis(now - since) + " ms");
+            return;
+        }
+        if (heartbeatInterval > 0 && since == 0 && now - lastWrite >= heartbeatInterval) {
+            // skipped if the previous ping is still being written
+            thread.writeLater(PING + "\0");
+        }
+        schedule(now);
+    }
+
+    /**
+     * close the socket, which makes the thread reading it clean up the user
+     *
+     * @param reason
+     */
+    private void close(String reason) {
+        stopped = true;
+        logger.info("{} (user ID:{}) {}, closing the connection", thread.getIpAddress(), thread.getUserId(), reason);
+        Metrics.incrementIdleConnectionsClosed();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.error("io error");
+        }
+    }
+}
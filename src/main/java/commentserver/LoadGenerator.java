@@ -0,0 +1,416 @@
+package commentserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This application generates load against a comment server to reproduce production traffic
+ * and to be used as a regression gate for performance changes.<br>
+ * It performs the following operations in order :
+ * 1. Opening connections, sending a movie id chosen on a zipf curve and receiving the comment list
+ * 2. Posting comments from every connection at a fixed rate
+ * 3. Reporting join latency, comment delivery latency percentiles, throughput and the server's RSS periodically
+ * 4. Exiting with status 1 if a connection failed or didn't join, if no comment was delivered
+ * while comments were posted, or if the delivery latency p99 exceeds the limit
+ * <p>
+ * Options are given as key=value :
+ * host (localhost), port (10007), connections (1000), movies (50), zipf (1.0),
+ * rate (comments per second per connection, 0.1), duration (seconds, 60), interval (seconds, 10),
+ * pid (server process id for RSS), max_p99 (milliseconds, 0 disables the gate),
+ * max_num_user (the server's, 0 doesn't check connections against it)
+ * <p>
+ * The number of connections must not exceed max_num_user if it is given, rate must not exceed 1000000
+ * and duration must be at least interval. Invalid options exit with status 2.
+ *
+ * @author Hiroki Sawano
+ * @see CommentServer
+ * @since 1.0
+ */
+public class LoadGenerator {
+
+    // a prefix of comments posted by this generator, followed by System.nanoTime() when posted
+    private static final String MARKER = "lg:";
+    // comments are scheduled in microseconds, so a connection can't post more often than this per second
+    private static final double MAX_RATE = 1_000_000;
+
+    private static Logger logger = LogManager.getLogger();
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int movies;
+    private final double zipf;
+    private final double rate;
+    private final int duration;
+    private final int interval;
+    private final String pid;
+    private final long maxP99;
+
+    private final Histogram joinLatency = new Histogram();
+    private final Histogram deliveryLatency = new Histogram();
+    private final Histogram totalDeliveryLatency = new Histogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger joined = new AtomicInteger();
+    private final List<Viewer> viewers = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    public LoadGenerator(Properties options) {
+        host = options.getProperty("host", "localhost");
+        port = Integer.parseInt(options.getProperty("port", "10007"));
+        connections = Integer.parseInt(options.getProperty("connections", "1000"));
+        movies = Integer.parseInt(options.getProperty("movies", "50"));
+        zipf = Double.parseDouble(options.getProperty("zipf", "1.0"));
+        rate = Double.parseDouble(options.getProperty("rate", "0.1"));
+        duration = Integer.parseInt(options.getProperty("duration", "60"));
+        interval = Integer.parseInt(options.getProperty("interval", "10"));
+        pid = options.getProperty("pid", "");
+        maxP99 = Long.parseLong(options.getProperty("max_p99", "0"));
+        int maxNumUser = Integer.parseInt(options.getProperty("max_num_user", "0"));
+
+        if (connections < 0 || (maxNumUser > 0 && connections > maxNumUser)) {
+            throw new IllegalArgumentException("connections must be between 0 and max_num_user (" + maxNumUser + ") : " + connections);
+        }
+        if (movies < 1) {
+            throw new IllegalArgumentException("movies must be at least 1 : " + movies);
+        }
+        if (!(rate >= 0 && rate <= MAX_RATE)) {
+            throw new IllegalArgumentException("rate must be between 0 and " + (long) MAX_RATE + " : " + rate);
+        }
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1 : " + interval);
+        }
+        if (duration < interval) {
+            throw new IllegalArgumentException("duration must be at least interval (" + interval + ") : " + duration);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties options = new Properties();
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i > 0) {
+                options.setProperty(arg.substring(0, i), arg.substring(i + 1));
+            }
+        }
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(options);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid option : {}", e.getMessage());
+            System.exit(2);
+            return;
+        }
+        System.exit(generator.run() ? 0 : 1);
+    }
+
+    /**
+     * run the load and report the results
+     *
+     * @return false if a connection failed or didn't join, no comment was delivered
+     * or the delivery latency p99 exceeded the limit
+     * @throws InterruptedException
+     */
+    public boolean run() throws InterruptedException {
+        logger.info("{} connections to {}:{} over {} movies (zipf {}), {} comments/s each, for {} s",
+                connections, host, port, movies, zipf, rate, duration);
+
+        // movies are chosen in proportion to 1 / rank^zipf
+        double[] cumulative = new double[movies];
+        double sum = 0;
+        for (int i = 0; i < movies; i++) {
+            sum += 1 / Math.pow(i + 1, zipf);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < connections; i++) {
+            double r = random.nextDouble() * sum;
+            int movie = 0;
+            while (cumulative[movie] < r) {
+                movie++;
+            }
+            Viewer viewer = new Viewer("loadtest" + movie);
+            viewers.add(viewer);
+            viewer.start();
+        }
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        if (rate > 0) {
+            long period = (long) (1_000_000 / rate);
+            for (Viewer viewer : viewers) {
+                scheduler.scheduleAtFixedRate(viewer::post, ThreadLocalRandom.current().nextLong(period), period, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        long start = System.nanoTime();
+        long previousSent = 0;
+        long previousReceived = 0;
+        for (int elapsed = interval; elapsed <= duration; elapsed += interval) {
+            Thread.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(elapsed) - System.nanoTime()) / 1_000_000);
+            long currentSent = sent.sum();
+            long currentReceived = received.sum();
+            logger.info("{} s - joined : {} errors : {} sent : {}/s received : {}/s join : {} delivery : {} rss : {}",
+                    elapsed, joined.get(), errors.sum(), (currentSent - previousSent) / interval,
+                    (currentReceived - previousReceived) / interval, joinLatency, deliveryLatency.getAndReset(totalDeliveryLatency), rss());
+            previousSent = currentSent;
+            previousReceived = currentReceived;
+        }
+
+        running = false;
+        scheduler.shutdownNow();
+        for (Viewer viewer : viewers) {
+            viewer.close();
+        }
+
+        long p99 = totalDeliveryLatency.percentile(0.99) / 1000;
+        logger.info("total - joined : {} errors : {} sent : {} received : {} join : {} delivery : {}",
+                joined.get(), errors.sum(), sent.sum(), received.sum(), joinLatency, totalDeliveryLatency);
+        boolean passed = true;
+        if (errors.sum() > 0 || joined.get() < connections) {
+            logger.error("{} errors, {} of {} connections joined", errors.sum(), joined.get(), connections);
+            passed = false;
+        }
+        if (rate > 0 && connections > 0 && totalDeliveryLatency.count() == 0) {
+            logger.error("no comment was delivered");
+            passed = false;
+        }
+        if (maxP99 > 0 && p99 > maxP99) {
+            logger.error("delivery latency p99 {} ms exceeded {} ms", p99, maxP99);
+            passed = false;
+        }
+        return passed;
+    }
+
+    /**
+     * read the resident set size of the server from /proc
+     *
+     * @return rss
+     */
+    private String rss() {
+        if (pid.isEmpty()) {
+            return "-";
+        }
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", pid, "status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    return line.substring("VmRSS:".length()).trim();
+                }
+            }
+        } catch (IOException e) {
+            // the server isn't running on this host
+        }
+        return "-";
+    }
+
+    /**
+     * a connection that joins a movie, posts comments and measures comments it receives
+     */
+    private class Viewer extends Thread {
+
+        private final String movieId;
+        private Socket socket;
+        private OutputStream out;
+
+        Viewer(String movieId) {
+            super(null, null, "Viewer", 256 * 1024);
+            this.movieId = movieId;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long start = System.nanoTime();
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port));
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                synchronized (this) {
+                    out = socket.getOutputStream();
+                    out.write((movieId + "\0").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+
+                // the comment list, which comments posted meanwhile may arrive before
+                String frame;
+                while ((frame = readFrame(in)) != null && !frame.startsWith("<?xml")) {
+                    receive(frame);
+                }
+                if (frame == null) {
+                    throw new IOException("disconnected while joining");
+                }
+                joinLatency.record((System.nanoTime() - start) / 1000);
+                joined.incrementAndGet();
+
+                while ((frame = readFrame(in)) != null) {
+                    receive(frame);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    errors.increment();
+                    logger.debug("{} : {}", movieId, e);
+                }
+            }
+        }
+
+        /**
+         * measure a comment posted by this generator
+         *
+         * @param frame
+         */
+        private void receive(String frame) {
+            int i = frame.indexOf("<value>" + MARKER);
+            if (i < 0) {
+                return;
+            }
+            i += "<value>".length() + MARKER.length();
+            long posted = Long.parseLong(frame.substring(i, frame.indexOf('<', i)));
+            deliveryLatency.record((System.nanoTime() - posted) / 1000);
+            received.increment();
+        }
+
+        /**
+         * post a comment containing the current time
+         */
+        synchronized void post() {
+            if (out == null || !running) {
+                return;
+            }
+            String comment = "loadtest,STUDENT,subscribe,0.0," + MARKER + System.nanoTime() + ",SHARE,live,ALL,,30,100\0";
+            try {
+                out.write(comment.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                sent.increment();
+            } catch (IOException e) {
+                errors.increment();
+                out = null;
+            }
+        }
+
+        void close() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+        private String readFrame(InputStream in) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            int c = in.read();
+            while (c != '\0' && c >= 0) {
+                frame.write(c);
+                c = in.read();
+            }
+            return c < 0 ? null : frame.toString("UTF8");
+        }
+    }
+
+    /**
+     * a lock-free histogram of microseconds<br>
+     * values are counted in 16 linear sub-buckets per power of two, so percentiles are within about 6%
+     */
+    private static class Histogram {
+
+        private static final int SUB_BUCKETS = 16;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(long micros) {
+            counts.incrementAndGet(index(Math.max(0, micros)));
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            // value >>> exponent is in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+            int exponent = 63 - Long.numberOfLeadingZeros(value) - 4;
+            return SUB_BUCKETS + exponent * SUB_BUCKETS + (int) (value >>> exponent) - SUB_BUCKETS;
+        }
+
+        private static long value(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << exponent;
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @param quantile
+         * @return the value in microseconds at the quantile
+         */
+        long percentile(double quantile) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return value(i);
+                }
+            }
+            return value(counts.length() - 1);
+        }
+
+        /**
+         * move the counts to another histogram and describe them
+         *
+         * @param total
+         * @return the description before resetting
+         */
+        String getAndReset(Histogram total) {
+            String description = toString();
+            for (int i = 0; i < counts.length(); i++) {
+                long count = counts.getAndSet(i, 0);
+                if (count > 0) {
+                    total.counts.addAndGet(i, count);
+                }
+            }
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[n=%d p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms]", count(),
+                    percentile(0.5) / 1000.0, percentile(0.9) / 1000.0, percentile(0.99) / 1000.0,
+                    percentile(0.999) / 1000.0, percentile(1.0) / 1000.0);
+        }
+    }
+}
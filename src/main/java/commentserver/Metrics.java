@@ -0,0 +1,191 @@
+package commentserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class counts events occurring among threads and reports them periodically.<br>
+ * Counters are kept in LongAdder objects so that hot paths don't contend on a lock.
+ *
+ * @author Hiroki Sawano
+ * @see LongAdder
+ * @see Logger
+ * @since 1.0
+ */
+public class Metrics {
+
+    private static Logger logger = LogManager.getLogger();
+
+    // the number of policy files sent
+    private static final LongAdder policyRequests = new LongAdder();
+    // the number of clients accepted
+    private static final LongAdder accepted = new LongAdder();
+    // nanoseconds from accepting clients to starting to read their first messages
+    private static final LongAdder acceptLatency = new LongAdder();
+    private static final LongAccumulator maxAcceptLatency = new LongAccumulator(Math::max, 0);
+    // clients waiting to send their first messages
+    private static final LongAdder handshakeQueue = new LongAdder();
+    // the number of comments dropped by filters
+    private static final LongAdder commentsDropped = new LongAdder();
+    // the number of connections closed because they were idle
+    private static final LongAdder idleConnectionsClosed = new LongAdder();
+    // milliseconds from the process start until the server started accepting
+    private static volatile long timeToReady = -1;
+    // milliseconds spent loading comment lists at startup
+    private static volatile long timeToWarm = -1;
+
+    /**
+     * count a policy file sent to a client
+     */
+    public static void incrementPolicyRequests() {
+        policyRequests.increment();
+    }
+
+    /**
+     *
+     * @return policyRequests
+     */
+    public static long getPolicyRequests() {
+        return policyRequests.sum();
+    }
+
+    /**
+     * count a client accepted
+     */
+    public static void incrementAccepted() {
+        accepted.increment();
+    }
+
+    /**
+     *
+     * @return accepted
+     */
+    public static long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * record how long a client waited for a handshake reader
+     *
+     * @param nanos
+     */
+    public static void recordAcceptLatency(long nanos) {
+        acceptLatency.add(nanos);
+        maxAcceptLatency.accumulate(nanos);
+    }
+
+    /**
+     *
+     * @return the average accept latency in milliseconds
+     */
+    public static double getAverageAcceptLatency() {
+        long count = getAccepted();
+        return count == 0 ? 0 : acceptLatency.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     *
+     * @return the maximum accept latency in milliseconds
+     */
+    public static double getMaxAcceptLatency() {
+        return maxAcceptLatency.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * count a client waiting to send its first message
+     */
+    public static void incrementHandshakeQueue() {
+        handshakeQueue.increment();
+    }
+
+    /**
+     * count a client which sent its first message or was closed
+     */
+    public static void decrementHandshakeQueue() {
+        handshakeQueue.decrement();
+    }
+
+    /**
+     *
+     * @return the number of clients waiting to send their first messages
+     */
+    public static long getHandshakeQueueDepth() {
+        return handshakeQueue.sum();
+    }
+
+    /**
+     * count a comment dropped by a filter
+     */
+    public static void incrementCommentsDropped() {
+        commentsDropped.increment();
+    }
+
+    /**
+     *
+     * @return commentsDropped
+     */
+    public static long getCommentsDropped() {
+        return commentsDropped.sum();
+    }
+
+    /**
+     * count a connection closed because it was idle
+     */
+    public static void incrementIdleConnectionsClosed() {
+        idleConnectionsClosed.increment();
+    }
+
+    /**
+     *
+     * @return idleConnectionsClosed
+     */
+    public static long getIdleConnectionsClosed() {
+        return idleConnectionsClosed.sum();
+    }
+
+    /**
+     *
+     * @param timeToReady
+     */
+    public static void setTimeToReady(long timeToReady) {
+        Metrics.timeToReady = timeToReady;
+    }
+
+    /**
+     *
+     * @return timeToReady
+     */
+    public static long getTimeToReady() {
+        return timeToReady;
+    }
+
+    /**
+     *
+     * @param timeToWarm
+     */
+    public static void setTimeToWarm(long timeToWarm) {
+        Metrics.timeToWarm = timeToWarm;
+    }
+
+    /**
+     *
+     * @return timeToWarm
+     */
+    public static long getTimeToWarm() {
+        return timeToWarm;
+    }
+
+    /**
+     * write the current values of the counters to the log
+     */
+    public static void log() {
+        logger.info("metrics - accepted : {} accept latency : {} ms (max {} ms) handshake queue : {}", 
+                getAccepted(), String.format("%.3f", getAverageAcceptLatency()), String.format("%.3f", getMaxAcceptLatency()), 
+                getHandshakeQueueDepth());
+        logger.info("metrics - policy requests : {} comments dropped : {} idle connections closed : {} time to ready : {} ms time to warm : {} ms", 
+                getPolicyRequests(), getCommentsDropped(), getIdleConnectionsClosed(), getTimeToReady(), getTimeToWarm());
+    }
+}
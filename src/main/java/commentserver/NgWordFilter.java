@@ -0,0 +1,127 @@
+package commentserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This filter drops or masks comments whose values contain NG words.<br>
+ * The words are read from the file given in <i>config.properties</i>, one per line.
+ * The file is checked for changes periodically and a new matcher is built on a background thread, 
+ * then swapped in at once, so comments are never held while the words are reloaded.
+ *
+ * @author Hiroki Sawano
+ * @see NgWordMatcher
+ * @see CommentPipeline
+ * @since 1.0
+ */
+public class NgWordFilter implements CommentFilter {
+
+    private static final char MASK = '*';
+
+    private static Logger logger = LogManager.getLogger();
+
+    private final Path file;
+    private final boolean mask;
+    private volatile NgWordMatcher matcher = new NgWordMatcher(new ArrayList<>());
+    private long lastModified = 0;
+    private Timer reloader;
+
+    /**
+     * Constructor
+     */
+    public NgWordFilter() {
+        this(Paths.get(Config.getInstance().getNgWordFile()), Config.getInstance().getNgWordAction().equals("mask"),
+                Config.getInstance().getNgWordReloadInterval());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file
+     * @param mask true to mask words instead of dropping comments
+     * @param interval milliseconds between checks of the file (0 not to check)
+     */
+    NgWordFilter(Path file, boolean mask, long interval) {
+        this.file = file;
+        this.mask = mask;
+        if (file.toString().isEmpty()) {
+            logger.error("ng_word_file isn't set");
+            return;
+        }
+        reload();
+        if (interval > 0) {
+            reloader = new Timer("NgWordReloader", true);
+            reloader.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    reload();
+                }
+            }, interval, interval);
+        }
+    }
+
+    /**
+     * stop checking the file for changes
+     */
+    void close() {
+        if (reloader != null) {
+            reloader.cancel();
+        }
+    }
+
+    /**
+     * read the file again if it has been modified
+     */
+    private void reload() {
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (modified == lastModified) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            NgWordMatcher newMatcher = new NgWordMatcher(readWords(file));
+            matcher = newMatcher;
+            lastModified = modified;
+            logger.info("{} NG words loaded from {} in {} ms", newMatcher.size(), file, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            logger.error("Couldn't read the NG word file {}", file);
+        }
+    }
+
+    /**
+     * read words from a file, skipping blank lines and lines starting with #
+     *
+     * @param file
+     * @return words
+     * @throws IOException
+     */
+    static List<String> readWords(Path file) throws IOException {
+        List<String> words = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                words.add(line);
+            }
+        }
+        return words;
+    }
+
+    @Override
+    public Comment filter(CommentServerThread sender, Comment comment) {
+        NgWordMatcher current = matcher;
+        if (mask) {
+            String value = current.mask(comment.getValue(), MASK);
+            return value == comment.getValue() ? comment : comment.withValue(value);
+        }
+        return current.matches(comment.getValue()) ? null : comment;
+    }
+}
@@ -0,0 +1,263 @@
+package commentserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * This class finds NG words in a text in one pass whatever the number of words (Aho-Corasick).<br>
+ * The automaton is built once and never changed, so it is shared among threads without locks.
+ * It is laid out to touch as little memory as possible per character :
+ * states are numbered breadth-first so that the shallow states most characters end in are packed together,
+ * a state with one transition keeps it inline and a state with more has a small hash table of its own,
+ * and texts are folded to lower case inline for ASCII, other upper case variants being added as transitions.
+ * Words and texts are compared case-insensitively.
+ *
+ * @author Hiroki Sawano
+ * @see NgWordFilter
+ * @since 1.0
+ */
+public class NgWordMatcher {
+
+    private static final int TARGET_BITS = 24;
+    private static final int MAX_STATES = 1 << TARGET_BITS;
+    // ints per state in states
+    private static final int STRIDE = 4;
+    // the last int of a state without transitions
+    private static final int NONE = -1;
+    // characters but ASCII letters whose lower case is the key, used only while building
+    private static final Map<Character, List<Character>> VARIANTS = new HashMap<>();
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char lower = Character.toLowerCase((char) c);
+            if (lower != c && (c < 'A' || c > 'Z')) {
+                VARIANTS.computeIfAbsent(lower, key -> new ArrayList<>()).add((char) c);
+            }
+        }
+    }
+
+    // transitions of the states with more than one, (character + 1) << 32 | next state (0 if empty),
+    // each state having a small hash table of its own in a region of this array
+    private final long[] edges;
+    // transitions of the initial state indexed by character (0 if none); its children are numbered first
+    private final char[] rootTargets = new char[Character.MAX_VALUE + 1];
+    // per state : the state to fall back on, the length of the longest word ending at it (0 if none),
+    // and either the offset and mask of its region in edges,
+    // or the next state and NONE - 1 - character of its only transition, or NONE
+    private final int[] states;
+    private final int numWords;
+
+    /**
+     * Constructor
+     *
+     * @param words
+     */
+    public NgWordMatcher(Collection<String> words) {
+        // build a trie of lower case words
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        trie.add(new HashMap<>());
+        lengths.add(0);
+        int count = 0;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < word.length(); i++) {
+                char c = Character.toLowerCase(word.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    lengths.add(0);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            lengths.set(state, word.length());
+            count++;
+        }
+        numWords = count;
+
+        int numStates = trie.size();
+        if (numStates > MAX_STATES || trie.get(0).size() > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("too many NG words");
+        }
+        states = new int[numStates * STRIDE];
+
+        // number the states breadth-first and give each a region at most three quarters full
+        int[] order = new int[numStates];
+        int[] number = new int[numStates];
+        int numSlots = 0;
+        int size = 1;
+        for (int i = 0; i < size; i++) {
+            number[order[i]] = i;
+            int numEdges = 0;
+            for (Map.Entry<Character, Integer> edge : trie.get(order[i]).entrySet()) {
+                order[size++] = edge.getValue();
+                numEdges += 1 + variants(edge.getKey()).size();
+            }
+            if (i != 0) {
+                states[i * STRIDE + 3] = NONE;
+                if (numEdges > 1) {
+                    int slots = Integer.highestOneBit(numEdges + numEdges / 3) << 1;
+                    states[i * STRIDE + 2] = numSlots;
+                    states[i * STRIDE + 3] = slots - 1;
+                    numSlots += slots;
+                }
+            }
+        }
+        edges = new long[numSlots];
+
+        // compute failure links breadth-first
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (Map.Entry<Character, Integer> edge : trie.get(0).entrySet()) {
+            int t = number[edge.getValue()];
+            putRoot(edge.getKey(), t);
+            states[t * STRIDE + 1] = lengths.get(edge.getValue());
+            queue.add(edge.getValue());
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+                char c = edge.getKey();
+                int t = edge.getValue();
+                put(number[s], c, number[t]);
+                int f = order[states[number[s] * STRIDE]];
+                Integer next;
+                while ((next = trie.get(f).get(c)) == null && f != 0) {
+                    f = order[states[number[f] * STRIDE]];
+                }
+                int failure = next == null ? 0 : number[next];
+                states[number[t] * STRIDE] = failure;
+                states[number[t] * STRIDE + 1] = Math.max(lengths.get(t), states[failure * STRIDE + 1]);
+                queue.add(t);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the number of words
+     */
+    public int size() {
+        return numWords;
+    }
+
+    private static List<Character> variants(char c) {
+        return VARIANTS.getOrDefault(c, Collections.emptyList());
+    }
+
+    private static int slot(char c) {
+        return c * 0x9E3779B1 >>> 16;
+    }
+
+    private void putRoot(char c, int target) {
+        rootTargets[c] = (char) target;
+        for (char variant : variants(c)) {
+            rootTargets[variant] = (char) target;
+        }
+    }
+
+    private void put(int state, char c, int target) {
+        putOne(state, c, target);
+        for (char variant : variants(c)) {
+            putOne(state, variant, target);
+        }
+    }
+
+    private void putOne(int state, char c, int target) {
+        int offset = states[state * STRIDE + 2];
+        int mask = states[state * STRIDE + 3];
+        if (mask == NONE) {
+            states[state * STRIDE + 2] = target;
+            states[state * STRIDE + 3] = NONE - 1 - c;
+            return;
+        }
+        int i = slot(c) & mask;
+        while (edges[offset + i] != 0) {
+            i = (i + 1) & mask;
+        }
+        edges[offset + i] = (long) (c + 1) << 32 | target;
+    }
+
+    private int transition(int state, char c) {
+        int offset = states[state * STRIDE + 2];
+        int mask = states[state * STRIDE + 3];
+        if (mask < 0) {
+            return mask == NONE - 1 - c ? offset : -1;
+        }
+        long key = c + 1;
+        for (int i = slot(c) & mask;; i = (i + 1) & mask) {
+            long entry = edges[offset + i];
+            if (entry >>> 32 == key) {
+                return (int) entry;
+            }
+            if (entry == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        if (c >= 'A' && c <= 'Z') {
+            c += 'a' - 'A';
+        }
+        while (state != 0) {
+            int next = transition(state, c);
+            if (next >= 0) {
+                return next;
+            }
+            state = states[state * STRIDE];
+        }
+        return rootTargets[c];
+    }
+
+    /**
+     *
+     * @param text
+     * @return true if the text contains any of the words
+     */
+    public boolean matches(String text) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            if (states[state * STRIDE + 1] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * replace the words in a text with a mask character
+     *
+     * @param text
+     * @param mask
+     * @return the text itself if it contains none of the words
+     */
+    public String mask(String text, char mask) {
+        char[] masked = null;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            int length = states[state * STRIDE + 1];
+            if (length > 0) {
+                if (masked == null) {
+                    masked = text.toCharArray();
+                }
+                for (int j = i - length + 1; j <= i; j++) {
+                    masked[j] = mask;
+                }
+            }
+        }
+        return masked == null ? text : new String(masked);
+    }
+}
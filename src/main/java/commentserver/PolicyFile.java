@@ -0,0 +1,77 @@
+package commentserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class holds the cross-domain policy file flash clients require before connecting.<br>
+ * The response is built from <i>config.properties</i> and encoded only once,
+ * so that sending it costs a single write of a byte array.
+ *
+ * @author Hiroki Sawano
+ * @see Config
+ * @see Metrics
+ * @since 1.0
+ */
+public class PolicyFile {
+
+    // the request flash clients send
+    public static final String REQUEST = "<policy-file-request/>";
+
+    private static byte[] response;
+    private static Logger logger = LogManager.getLogger();
+
+    /**
+     * Encodes the policy file according to the configured domains and ports.<br>
+     * This method is called once at startup.
+     */
+    public static void init() {
+        Config config = Config.getInstance();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?><!DOCTYPE cross-domain-policy SYSTEM \"/xml/dtds/cross-domain-policy.dtd\">");
+        sb.append("<cross-domain-policy>");
+        sb.append("<site-control permitted-cross-domain-policies=\"master-only\"/>");
+        for (String domain : config.getPolicyDomains().split(",")) {
+            sb.append("<allow-access-from domain=\"").append(domain.trim())
+                    .append("\" to-ports=\"").append(config.getPolicyPorts()).append("\"/>");
+        }
+        sb.append("</cross-domain-policy>");
+        sb.append('\0');
+
+        response = sb.toString().getBytes(StandardCharsets.UTF_8);
+        logger.info("Encoded the policy file ({} bytes)", response.length);
+    }
+
+    /**
+     * see if a received message is a policy file request
+     *
+     * @param receivedMessage
+     * @return true if the client requires the policy file
+     */
+    public static boolean isRequest(String receivedMessage) {
+        return receivedMessage.startsWith(REQUEST);
+    }
+
+    /**
+     * write the pre-encoded policy file to a client without blocking<br>
+     * it fits in the send buffer of a new connection, so it is written at once.
+     *
+     * @param channel
+     * @return false if it couldn't be written at once
+     * @throws IOException
+     */
+    public static boolean send(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(response);
+        channel.write(buffer);
+        if (buffer.hasRemaining()) {
+            return false;
+        }
+        Metrics.incrementPolicyRequests();
+        return true;
+    }
+}
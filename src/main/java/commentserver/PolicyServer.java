@@ -0,0 +1,182 @@
+package commentserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This thread listens on a port dedicated to flash policy file requests.<br>
+ * Clients are accepted and read without blocking on one selector,
+ * so a client which sends nothing doesn't delay the others,
+ * and each request is answered with a single write of the pre-encoded policy file.
+ *
+ * @author Hiroki Sawano
+ * @see PolicyFile
+ * @see Selector
+ * @since 1.0
+ */
+public class PolicyServer extends Thread {
+
+    // how long to wait for a client to send its request
+    private static final int READ_TIMEOUT = 3000;
+
+    private static Logger logger = LogManager.getLogger();
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ByteBuffer buffer = ByteBuffer.allocate(PolicyFile.REQUEST.length() + 1);
+    private long nextExpiry = 0;
+
+    /**
+     * Constructor
+     *
+     * @param port
+     * @throws IOException
+     */
+    public PolicyServer(int port) throws IOException {
+        super("PolicyServer");
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        setDaemon(true);
+    }
+
+    /**
+     * Accepts clients and sends them the policy file until the server is closed.
+     */
+    @Override
+    public void run() {
+        logger.info("Policy server started on port {}", serverChannel.socket().getLocalPort());
+
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select(READ_TIMEOUT / 10);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+                expire();
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) {
+                    logger.error("io error");
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("io error");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = serverChannel.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.register(selector, SelectionKey.OP_READ, new Request());
+    }
+
+    /**
+     * read bytes until a null character and answer them if they form a policy file request
+     *
+     * @param key
+     */
+    private void read(SelectionKey key) {
+        SocketChannel client = (SocketChannel) key.channel();
+        Request request = (Request) key.attachment();
+        try {
+            buffer.clear();
+            int length = client.read(buffer);
+            if (length < 0) {
+                close(key);
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                byte c = buffer.get(i);
+                if (c == '\0') {
+                    if (PolicyFile.isRequest(new String(request.bytes, 0, request.length, StandardCharsets.UTF_8))) {
+                        PolicyFile.send(client);
+                    }
+                    close(key);
+                    return;
+                }
+                if (request.length == request.bytes.length) {
+                    // too long to be a policy file request
+                    close(key);
+                    return;
+                }
+                request.bytes[request.length++] = c;
+            }
+        } catch (IOException e) {
+            close(key);
+        }
+    }
+
+    /**
+     * close clients which haven't sent their request within READ_TIMEOUT
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        if (now < nextExpiry) {
+            return;
+        }
+        nextExpiry = now + READ_TIMEOUT / 10;
+        for (SelectionKey key : selector.keys()) {
+            Request request = (Request) key.attachment();
+            if (request != null && key.isValid() && now - request.acceptedTime >= READ_TIMEOUT) {
+                close(key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.error("io error");
+        }
+    }
+
+    /**
+     * stop accepting policy file requests
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        serverChannel.close();
+        selector.wakeup();
+    }
+
+    /**
+     * a request being received
+     */
+    private static class Request {
+
+        final byte[] bytes = new byte[PolicyFile.REQUEST.length()];
+        final long acceptedTime = System.currentTimeMillis();
+        int length = 0;
+    }
+}
@@ -0,0 +1,130 @@
+package commentserver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class sends archived comments to a user according to his playback position.<br>
+ * The client reports the position when it starts, seeks or pauses the movie, 
+ * and comments are sent when the playback reaches their time, 
+ * so only comments on the part actually watched are sent.
+ * Deliveries of all users are scheduled on the shared HashedWheelTimer, 
+ * and the comments are written on a writer thread so that a slow client can't stall the timer.
+ *
+ * @author Hiroki Sawano
+ * @see CommentList
+ * @see HashedWheelTimer
+ * @see CommentServerThread
+ * @since 1.0
+ */
+public class Replay {
+
+    // how often to look for new comments after the last one was sent (milliseconds)
+    private static final long IDLE_INTERVAL = 1000;
+
+    private final CommentServerThread thread;
+    private final CommentList commentList;
+    private final HashedWheelTimer timer;
+    // how far comments are sent ahead of the position (seconds)
+    private final double lookahead;
+    // how long to wait for the previous comments to be written (milliseconds)
+    private final long retryInterval;
+
+    // position at positionTime (seconds)
+    private double position = 0;
+    private long positionTime = 0;
+    private boolean playing = false;
+    // the last comment sent
+    private CommentList.Entry cursor = CommentList.Entry.before(0);
+    private HashedWheelTimer.Timeout timeout = null;
+
+    /**
+     * Constructor
+     *
+     * @param thread
+     * @param commentList
+     */
+    public Replay(CommentServerThread thread, CommentList commentList) {
+        this.thread = thread;
+        this.commentList = commentList;
+        this.timer = HashedWheelTimer.getInstance();
+        this.retryInterval = Config.getInstance().getTimerTick();
+        this.lookahead = retryInterval / 1000.0;
+    }
+
+    /**
+     * start playing at a position
+     *
+     * @param position seconds
+     */
+    public synchronized void seek(double position) {
+        cancel();
+        setPosition(position);
+        playing = true;
+        deliver();
+    }
+
+    /**
+     * stop playing at a position
+     *
+     * @param position seconds
+     */
+    public synchronized void pause(double position) {
+        cancel();
+        setPosition(position);
+        playing = false;
+    }
+
+    /**
+     * stop sending comments<br>
+     * this method is called when the connection is closed.
+     */
+    public synchronized void stop() {
+        cancel();
+        playing = false;
+    }
+
+    private void setPosition(double position) {
+        this.position = position;
+        this.positionTime = System.nanoTime();
+        this.cursor = CommentList.Entry.before(position);
+    }
+
+    private double currentPosition() {
+        return position + (System.nanoTime() - positionTime) / 1e9;
+    }
+
+    private void cancel() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * send comments the playback has reached and schedule the next delivery
+     */
+    private synchronized void deliver() {
+        if (!playing) {
+            return;
+        }
+        double current = currentPosition();
+        List<CommentList.Entry> entries = commentList.entriesUntil(cursor, current + lookahead);
+        if (!entries.isEmpty()) {
+            StringBuilder data = new StringBuilder();
+            for (CommentList.Entry entry : entries) {
+                data.append(CommentList.createSendData(entry.getComment())).append('\0');
+            }
+            if (!thread.writeLater(data.toString())) {
+                // the previous comments are still being written
+                timeout = timer.newTimeout(this::deliver, retryInterval, TimeUnit.MILLISECONDS);
+                return;
+            }
+            cursor = entries.get(entries.size() - 1);
+        }
+
+        CommentList.Entry next = commentList.nextEntry(cursor);
+        long delay = next == null ? IDLE_INTERVAL : (long) ((next.getTime() - current) * 1000);
+        timeout = timer.newTimeout(this::deliver, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,309 @@
+package commentserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class manages CommentList objects among threads.<br>
+ * Users who are watching the same movie share one comment list (a room), 
+ * which is kept in memory until the last viewer leaves.
+ * A room warmed up before anyone watches it is removed if nobody joins it for warm_room_ttl.
+ * The comment file is read and written under the room's own lock, not inside the map's computations,
+ * so a slow disk only delays viewers joining or leaving that room.
+ *
+ * @author Hiroki Sawano
+ * @see CommentList
+ * @see ConcurrentHashMap
+ * @see ForkJoinPool
+ * @see Config
+ * @since 1.0
+ */
+public class RoomManagement {
+
+    // rooms keyed by movie id
+    private static final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private static Logger logger = LogManager.getLogger();
+
+    /**
+     * join a room<br>
+     * if no one is watching the movie, its comment list is read from the file.
+     *
+     * @param movieId
+     * @return commentList
+     * @throws Exception
+     */
+    public static CommentList joinRoom(String movieId) throws Exception {
+        return openRoom(movieId, true);
+    }
+
+    /**
+     * leave a room<br>
+     * the last viewer renews the comment file and removes the room from memory.
+     *
+     * @param movieId
+     */
+    public static void leaveRoom(String movieId) {
+        Room room = rooms.get(movieId);
+        if (room == null) {
+            return;
+        }
+        synchronized (room) {
+            if (room.removed || room.commentList.decrementViewers() > 0) {
+                return;
+            }
+            try {
+                room.commentList.writeCommentListToFile();
+            } catch (Exception e) {
+                logger.error("Couldn't write the comment list : {}", movieId);
+            }
+            room.remove();
+        }
+    }
+
+    /**
+     * load a comment list into memory before anyone watches it
+     *
+     * @param movieId
+     * @throws Exception
+     */
+    public static void warmRoom(String movieId) throws Exception {
+        openRoom(movieId, false);
+    }
+
+    /**
+     * get a room, reading its comment list from the file if it isn't in memory<br>
+     * a room removed by another thread meanwhile is created again.
+     *
+     * @param movieId
+     * @param join true to count a viewer
+     * @return commentList
+     * @throws Exception
+     */
+    private static CommentList openRoom(String movieId, boolean join) throws Exception {
+        while (true) {
+            Room room = rooms.computeIfAbsent(movieId, Room::new);
+            synchronized (room) {
+                if (room.removed) {
+                    continue;
+                }
+                if (room.commentList == null) {
+                    try {
+                        room.commentList = new CommentList(movieId);
+                    } catch (Exception e) {
+                        room.remove();
+                        throw e;
+                    }
+                }
+                if (join) {
+                    room.commentList.incrementViewers();
+                }
+                return room.commentList;
+            }
+        }
+    }
+
+    /**
+     * remove rooms nobody has watched for a while<br>
+     * warmed rooms have no viewers until someone joins, so leaveRoom never removes them.
+     * Such a room has no comments to write, since comments are only posted by viewers.
+     *
+     * @param ttl milliseconds
+     * @return the number of rooms removed
+     */
+    public static int evictIdleRooms(long ttl) {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Room room : rooms.values()) {
+            synchronized (room) {
+                // a room whose list is being read is about to be joined or warmed
+                if (room.removed || room.commentList == null
+                        || room.commentList.getViewers() > 0 || now - room.commentList.getLastActive() < ttl) {
+                    continue;
+                }
+                room.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * load comment lists into memory in parallel using a fork-join pool
+     *
+     * @param movieIds
+     * @param parallelism the number of threads reading files
+     * @return the number of comment lists loaded
+     */
+    public static int warmRooms(List<String> movieIds, int parallelism) {
+        AtomicInteger warmed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.submit(() -> movieIds.parallelStream().forEach(movieId -> {
+                try {
+                    warmRoom(movieId);
+                    warmed.incrementAndGet();
+                } catch (Exception e) {
+                    logger.error("Couldn't warm up the comment list : {}", movieId);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Couldn't warm up comment lists");
+        } finally {
+            pool.shutdown();
+        }
+        return warmed.get();
+    }
+
+    /**
+     * list movies whose comment files were modified most recently
+     *
+     * @param dir the comment list directory
+     * @param count the maximum number of movies
+     * @return movie ids
+     * @throws IOException
+     */
+    public static List<String> recentMovieIds(File dir, int count) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath(), "*.xml")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Map<Path, Long> lastModified = new HashMap<>();
+        for (Path file : files) {
+            lastModified.put(file, file.toFile().lastModified());
+        }
+        files.sort((a, b) -> Long.compare(lastModified.get(b), lastModified.get(a)));
+
+        List<String> movieIds = new ArrayList<>();
+        for (Path file : files.subList(0, Math.min(count, files.size()))) {
+            String name = file.getFileName().toString();
+            movieIds.add(name.substring(0, name.length() - ".xml".length()));
+        }
+        return movieIds;
+    }
+
+    /**
+     *
+     * @return ids of movies whose comment lists are in memory
+     */
+    public static List<String> getMovieIds() {
+        return new ArrayList<>(rooms.keySet());
+    }
+
+    /**
+     * write all comment lists in memory to the files in parallel<br>
+     * this method is called while the server is shutting down.
+     *
+     * @param parallelism the number of threads writing files
+     * @return the number of comment lists written
+     */
+    public static int writeAllCommentLists(int parallelism) {
+        List<CommentList> snapshot = new ArrayList<>();
+        for (Room room : rooms.values()) {
+            CommentList commentList = room.commentList;
+            if (commentList != null) {
+                snapshot.add(commentList);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, snapshot.size())));
+        List<Future<?>> futures = new ArrayList<>();
+        for (CommentList room : snapshot) {
+            futures.add(executor.submit(() -> {
+                room.writeCommentListToFile();
+                return null;
+            }));
+        }
+
+        int written = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                written++;
+            } catch (Exception e) {
+                logger.error("Couldn't write the comment list : {}", snapshot.get(i).getMovieId());
+            }
+        }
+        executor.shutdown();
+        return written;
+    }
+
+    /**
+     * save ids of movies being watched so that the next process can warm them up<br>
+     * rooms only warmed up aren't saved, otherwise they would be carried over forever.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static void writeWarmRooms(File file) throws IOException {
+        List<String> movieIds = new ArrayList<>();
+        rooms.forEach((movieId, room) -> {
+            CommentList commentList = room.commentList;
+            if (commentList != null && commentList.getViewers() > 0) {
+                movieIds.add(movieId);
+            }
+        });
+        Files.write(file.toPath(), movieIds, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * read ids of movies listed one per line
+     *
+     * @param file
+     * @return movie ids
+     * @throws IOException
+     */
+    public static List<String> readMovieIds(File file) throws IOException {
+        List<String> movieIds = new ArrayList<>();
+        if (file.exists()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    movieIds.add(line.trim());
+                }
+            }
+        }
+        return movieIds;
+    }
+
+    /**
+     * a comment list shared by users watching the same movie<br>
+     * the list is read, counted and written under the room's lock.
+     * A room is put in the map before its list is read, and removed from it once its last viewer has left.
+     */
+    private static class Room {
+
+        final String movieId;
+        // null until the file is read
+        volatile CommentList commentList = null;
+        // true once the room is no longer in the map
+        boolean removed = false;
+
+        Room(String movieId) {
+            this.movieId = movieId;
+        }
+
+        void remove() {
+            removed = true;
+            rooms.remove(movieId, this);
+        }
+    }
+}
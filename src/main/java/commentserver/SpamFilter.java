@@ -0,0 +1,64 @@
+package commentserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This filter drops comments a connection posts too often or repeats.<br>
+ * Only the previous comment of each connection is remembered, and it is forgotten when the connection is closed.
+ *
+ * @author Hiroki Sawano
+ * @see CommentPipeline
+ * @since 1.0
+ */
+public class SpamFilter implements CommentFilter {
+
+    private final long minInterval;
+    private final long duplicateInterval;
+    private final Map<CommentServerThread, Previous> previous = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     */
+    public SpamFilter() {
+        Config config = Config.getInstance();
+        this.minInterval = config.getSpamMinInterval();
+        this.duplicateInterval = config.getSpamDuplicateInterval();
+    }
+
+    @Override
+    public Comment filter(CommentServerThread sender, Comment comment) {
+        long now = System.currentTimeMillis();
+        // a connection posts its comments from its own thread one by one
+        Previous last = previous.put(sender, new Previous(now, comment.getValue()));
+        if (last == null) {
+            return comment;
+        }
+        if (now - last.time < minInterval) {
+            return null;
+        }
+        if (now - last.time < duplicateInterval && comment.getValue().equals(last.value)) {
+            return null;
+        }
+        return comment;
+    }
+
+    @Override
+    public void disconnected(CommentServerThread sender) {
+        previous.remove(sender);
+    }
+
+    /**
+     * the previous comment of a connection
+     */
+    private static class Previous {
+
+        final long time;
+        final String value;
+
+        Previous(long time, String value) {
+            this.time = time;
+            this.value = value;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package commentserver;
 
-import org.w3c.dom.Document;
-
 /**
  * User class
  *
@@ -13,7 +11,10 @@ public class User {
     private boolean isUsed = false;
     private CommentServerThread thread = null;
     private String movieId = null;
-    private Document commentList = null;
+    private CommentList commentList = null;
+    // user_id and role the user declared with #join (null until then)
+    private String viewerId = null;
+    private String role = null;
 
     public void setIsUsed(boolean isUsed) {
         this.isUsed = isUsed;
@@ -39,11 +40,27 @@ public class User {
         return this.movieId;
     }
 
-    public void setCommentList(Document commentList) {
+    public void setCommentList(CommentList commentList) {
         this.commentList = commentList;
     }
 
-    public Document getCommentList() {
+    public CommentList getCommentList() {
         return this.commentList;
     }
+
+    public void setViewerId(String viewerId) {
+        this.viewerId = viewerId;
+    }
+
+    public String getViewerId() {
+        return this.viewerId;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public String getRole() {
+        return this.role;
+    }
 }
@@ -1,12 +1,18 @@
 package commentserver;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.w3c.dom.Document;
 
 /**
  * This class manages User objects among threads<br>
- * Each of them contains the id of a movie he is watching and the movie's comment list. 
+ * Each of them contains the id of a movie he is watching and the movie's comment list. <br>
+ * Users are also indexed per movie by the user_id and role they declare with #join when they connect,
+ * so that whispers and scoped comments are sent only to their recipients.
+ * Users who never declare them receive only the comments sent to everyone in the movie.
  *
  * @author Hiroki Sawano
  * @see User
@@ -20,6 +26,9 @@ public class UserManagement {
     private static final int maxNumUser;
     // a user management area 
     private static User user[];
+    // users indexed by user_id and role per movie
+    // (guarded by the class lock, like user)
+    private static final Map<String, RoomIndex> roomIndexes = new HashMap<>();
     private static Logger logger = LogManager.getLogger();
 
     /**
@@ -46,13 +55,17 @@ public class UserManagement {
     /**
      * This method is used to add a new user.<br>
      * It returns its user id after setting a thread object, movie id and comment list.
+     * No user is added once the server is shutting down, since the comment lists may already be written.
      *
      * @param thread
      * @param movieId
      * @param commentList
-     * @return user id
+     * @return user id (-1 if the server is shutting down)
      */
-    synchronized public static int addUser(CommentServerThread thread, String movieId, Document commentList) {
+    synchronized public static int addUser(CommentServerThread thread, String movieId, CommentList commentList) {
+        if (CommentServer.isShuttingDown()) {
+            return -1;
+        }
         int i;
         for (i = 0; i < maxNumUser; i++) {
             if (!user[i].isUsed()) {
@@ -72,6 +85,7 @@ public class UserManagement {
      * @param id
      */
     synchronized public static void removeUser(int id) {
+        unindexUser(id);
         user[id].setThread(null);
         user[id].setIsUsed(false);
         user[id].setMovieId(null);
@@ -80,14 +94,15 @@ public class UserManagement {
 
     /**
      * send a comment to clients<br>
-     * the comment is sent to those who are watching the same movie.
+     * the comment is sent to those who are watching the same movie
+     * except those replaying it, who receive it when their playback reaches its time.
      *
      * @param movieId
      * @param comment
      */
     synchronized public static void sendComment(String movieId, String comment) {
         for (int i = 0; i < maxNumUser; i++) {
-            if (user[i].isUsed() && user[i].getMovieId().equals(movieId)) {
+            if (user[i].isUsed() && user[i].getMovieId().equals(movieId) && !user[i].getThread().isReplay()) {
                 user[i].getThread().getOut().print(comment + '\0');
                 user[i].getThread().getOut().flush();
                 logger.info("{} (user ID:{}) received", user[i].getThread().getIpAddress(), user[i].getThread().getUserId());
@@ -95,6 +110,85 @@ public class UserManagement {
         }
     }
 
+    /**
+     * send a comment to its recipients<br>
+     * a whisper is sent to users whose user_id is the whisper field, 
+     * a comment whose scope is a role is sent to users with the role
+     * and the others are sent to those who are watching the same movie.<br>
+     * the sender also receives its whisper or scoped comment,
+     * but users who haven't declared their user_id and role don't, nor do those replaying the movie.<br>
+     * user_id and role in the comment aren't used for routing, since anyone can write them.
+     *
+     * @param id the sender's user id
+     * @param movieId
+     * @param comment
+     * @param sendData the comment in xml
+     */
+    synchronized public static void sendComment(int id, String movieId, Comment comment, String sendData) {
+        Set<Integer> recipients;
+        RoomIndex index = roomIndexes.get(movieId);
+        if (!comment.getWhisper().isEmpty()) {
+            recipients = index == null ? null : index.byViewerId.get(comment.getWhisper());
+        } else if (!comment.isToAll()) {
+            recipients = index == null ? null : index.byRole.get(comment.getScope());
+        } else {
+            sendComment(movieId, sendData);
+            return;
+        }
+
+        if (recipients != null) {
+            for (int i : recipients) {
+                if (i != id && !user[i].getThread().isReplay()) {
+                    send(i, sendData);
+                }
+            }
+        }
+        send(id, sendData);
+    }
+
+    private static void send(int i, String sendData) {
+        user[i].getThread().getOut().print(sendData + '\0');
+        user[i].getThread().getOut().flush();
+        logger.info("{} (user ID:{}) received", user[i].getThread().getIpAddress(), user[i].getThread().getUserId());
+    }
+
+    /**
+     * index a user by the user_id and role he declared with #join<br>
+     * they can be declared only once per connection.
+     *
+     * @param id
+     * @param viewerId
+     * @param role
+     * @return false if the user has already declared them
+     */
+    synchronized public static boolean registerUser(int id, String viewerId, String role) {
+        if (user[id].getViewerId() != null) {
+            return false;
+        }
+        user[id].setViewerId(viewerId);
+        user[id].setRole(role);
+
+        RoomIndex index = roomIndexes.computeIfAbsent(user[id].getMovieId(), key -> new RoomIndex());
+        index.byViewerId.computeIfAbsent(viewerId, key -> new LinkedHashSet<>()).add(id);
+        index.byRole.computeIfAbsent(role, key -> new LinkedHashSet<>()).add(id);
+        return true;
+    }
+
+    private static void unindexUser(int id) {
+        String viewerId = user[id].getViewerId();
+        if (viewerId == null) {
+            return;
+        }
+        RoomIndex index = roomIndexes.get(user[id].getMovieId());
+        index.remove(index.byViewerId, viewerId, id);
+        index.remove(index.byRole, user[id].getRole(), id);
+        if (index.byViewerId.isEmpty()) {
+            roomIndexes.remove(user[id].getMovieId());
+        }
+        user[id].setViewerId(null);
+        user[id].setRole(null);
+    }
+
     /**
      * return how many users are watching the movie whose id is the param
      * 'movieId'
@@ -113,19 +207,19 @@ public class UserManagement {
     }
 
     /**
-     * if users watching a movie exist, return its comment list
-     *
-     * @param movieId
-     * @return commentList
+     * users watching a movie indexed by user_id and role
      */
-    synchronized public static Document checkFile(String movieId) {
-        for (int i = 0; i < maxNumUser; i++) {
-            if (user[i].isUsed()) {
-                if (user[i].getMovieId().equals(movieId)) {
-                    return user[i].getCommentList();
-                }
+    private static class RoomIndex {
+
+        final Map<String, Set<Integer>> byViewerId = new HashMap<>();
+        final Map<String, Set<Integer>> byRole = new HashMap<>();
+
+        void remove(Map<String, Set<Integer>> map, String key, int id) {
+            Set<Integer> ids = map.get(key);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                map.remove(key);
             }
         }
-        return null;
     }
 }
@@ -0,0 +1,169 @@
+package commentserver;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test of CommentList
+ *
+ * @author Hiroki Sawano
+ */
+public class CommentListTest {
+
+    private static final String MOVIE_ID = "comment-list-test";
+
+    private Path file;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Config.getInstance().init();
+        Files.createDirectories(Paths.get(Config.getInstance().getCommentListDir()));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = Paths.get(Config.getInstance().getCommentListDir(), MOVIE_ID + ".xml");
+        Files.deleteIfExists(file);
+    }
+
+    private static Comment comment(String value) {
+        return Comment.parse("1,,,0," + value + ",normal,,all,,medium,naka");
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * comments added after the file is written are appended to the same file, which can be read again
+     */
+    @Test
+    public void testAppendAfterReplace() throws IOException, XMLStreamException {
+        CommentList list = new CommentList(MOVIE_ID);
+        Object created = fileKey();
+        assertTrue(read().endsWith("</root>"));
+
+        list.addComment(comment("first"));
+        list.writeCommentListToFile();
+        list.addComment(comment("second"));
+        list.writeCommentListToFile();
+
+        String text = read();
+        assertTrue(text.endsWith("</root>"));
+        assertTrue(text.indexOf("first") < text.indexOf("second"));
+        if (created != null) {
+            assertEquals("the file was rewritten", created, fileKey());
+        }
+        assertEquals(2, new CommentList(MOVIE_ID).size());
+    }
+
+    /**
+     * a file cut off in the middle of a comment is read up to the broken comment
+     * and replaced as a whole on the next write, after which comments are appended again
+     */
+    @Test
+    public void testTruncatedTailRecovery() throws IOException, XMLStreamException {
+        CommentList list = new CommentList(MOVIE_ID);
+        list.addComment(comment("first"));
+        list.addComment(comment("second"));
+        list.addComment(comment("third"));
+        list.writeCommentListToFile();
+
+        // cut the file in the middle of the third comment
+        int cut = read().indexOf("third");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(cut);
+        }
+
+        CommentList recovered = new CommentList(MOVIE_ID);
+        assertEquals(2, recovered.size());
+
+        recovered.addComment(comment("fourth"));
+        recovered.writeCommentListToFile();
+        String text = read();
+        assertTrue(text.endsWith("</root>"));
+        assertFalse(text.contains("third"));
+        assertEquals(3, new CommentList(MOVIE_ID).size());
+
+        Object replaced = fileKey();
+        recovered.addComment(comment("fifth"));
+        recovered.writeCommentListToFile();
+        assertTrue(read().endsWith("<value>fifth</value><type>normal</type><target></target><scope>all</scope>"
+                + "<whisper></whisper></message><style><fontsize>medium</fontsize><place>naka</place></style></comment></root>"));
+        if (replaced != null) {
+            assertEquals("the file was rewritten", replaced, fileKey());
+        }
+        assertEquals(4, new CommentList(MOVIE_ID).size());
+    }
+
+    /**
+     * a file changed behind the list's back is replaced as a whole
+     */
+    @Test
+    public void testReplaceChangedFile() throws IOException, XMLStreamException {
+        CommentList list = new CommentList(MOVIE_ID);
+        list.addComment(comment("first"));
+        list.writeCommentListToFile();
+
+        Files.write(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><createdTime>0</createdTime></root>"
+                .getBytes(StandardCharsets.UTF_8));
+        list.addComment(comment("second"));
+        list.writeCommentListToFile();
+
+        String text = read();
+        assertTrue(text.contains("first"));
+        assertTrue(text.endsWith("</root>"));
+        assertEquals(2, new CommentList(MOVIE_ID).size());
+    }
+
+    /**
+     * a write whose rename failed leaves no position to append at, so the next write replaces the file
+     */
+    @Test
+    public void testReplaceAfterFailedRename() throws IOException, XMLStreamException {
+        CommentList list = new CommentList(MOVIE_ID);
+        list.addComment(comment("first"));
+
+        // a non-empty directory in place of the file makes the rename fail
+        Files.delete(file);
+        Files.createDirectory(file);
+        Path blocker = Files.createFile(file.resolve("blocker"));
+        try {
+            list.writeCommentListToFile();
+            fail("the rename should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Files.delete(blocker);
+        Files.delete(file);
+
+        // a file as long as the one which wasn't renamed, but not the same
+        Path temp = file.resolveSibling(MOVIE_ID + ".xml.tmp");
+        String written = new String(Files.readAllBytes(temp), StandardCharsets.UTF_8);
+        Files.write(file, written.replace("first", "FIRST").getBytes(StandardCharsets.UTF_8));
+
+        list.addComment(comment("second"));
+        list.writeCommentListToFile();
+        String text = read();
+        assertTrue(text.contains("first"));
+        assertFalse(text.contains("FIRST"));
+        assertEquals(2, new CommentList(MOVIE_ID).size());
+    }
+}
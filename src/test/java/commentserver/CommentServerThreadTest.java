@@ -0,0 +1,162 @@
+package commentserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of CommentServerThread<br>
+ * Clients join through a HandshakeReader as they do on the server.
+ *
+ * @author Hiroki Sawano
+ */
+public class CommentServerThreadTest {
+
+    // how long a client waits for a frame (milliseconds)
+    private static final int TIMEOUT = 2000;
+
+    private static ServerSocketChannel server;
+    private static HandshakeReader handshakeReader;
+
+    private final List<Socket> clients = new ArrayList<>();
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Config.getInstance().init();
+        Files.createDirectories(Paths.get(Config.getInstance().getCommentListDir()));
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        handshakeReader = new HandshakeReader("HandshakeReader-test", TIMEOUT);
+        handshakeReader.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        handshakeReader.close();
+        server.close();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * connect a client and receive the comment list
+     *
+     * @param movieId
+     * @return the client
+     */
+    private Socket join(String movieId) throws IOException {
+        Socket client = new Socket();
+        clients.add(client);
+        client.connect(server.getLocalAddress());
+        client.setSoTimeout(TIMEOUT);
+        handshakeReader.register(server.accept(), System.nanoTime());
+        send(client, movieId);
+        assertTrue(readFrame(client).contains("<root>"));
+        return client;
+    }
+
+    static void send(Socket client, String message) throws IOException {
+        client.getOutputStream().write((message + "\0").getBytes(StandardCharsets.UTF_8));
+        client.getOutputStream().flush();
+    }
+
+    static String readFrame(Socket client) throws IOException {
+        InputStream in = client.getInputStream();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        for (int c = in.read(); c != '\0'; c = in.read()) {
+            if (c < 0) {
+                throw new IOException("disconnected");
+            }
+            frame.write(c);
+        }
+        return frame.toString("UTF8");
+    }
+
+    static String comment(String value) {
+        return comment(value, "ALL", "");
+    }
+
+    static String comment(String value, String scope, String whisper) {
+        return "viewer,STUDENT,subscribe,0.0," + value + ",SHARE,live," + scope + "," + whisper + ",30,100";
+    }
+
+    /**
+     * declare user_id and role, and wait until the server has indexed them
+     */
+    private static void register(Socket client, String viewerId, String role) throws IOException {
+        send(client, "#join," + viewerId + "," + role);
+        send(client, "#ping");
+        assertEquals(IdleMonitor.PONG, readFrame(client));
+    }
+
+    /**
+     * a comment reaches a viewer whose thread is blocked reading it, which sends nothing meanwhile
+     */
+    @Test
+    public void testCommentReachesIdleViewer() throws IOException {
+        Socket sender = join("thread-test-idle");
+        Socket idle = join("thread-test-idle");
+
+        send(sender, comment("hello"));
+        assertTrue(readFrame(idle).contains("<value>hello</value>"));
+        assertTrue(readFrame(sender).contains("<value>hello</value>"));
+
+        send(idle, comment("reply"));
+        assertTrue(readFrame(sender).contains("<value>reply</value>"));
+    }
+
+    /**
+     * a whisper reaches the viewer with the user_id and a scoped comment those with the role,
+     * and both are echoed to the sender but not sent to viewers who haven't joined or are replaying<br>
+     * a comment to everyone sent afterwards must be the next frame of those who didn't receive them.
+     */
+    @Test
+    public void testRouting() throws IOException {
+        Socket sender = join("thread-test-routing");
+        register(sender, "alice", "TEACHER");
+        Socket bob = join("thread-test-routing");
+        register(bob, "bob", "STUDENT");
+        Socket carol = join("thread-test-routing");
+        register(carol, "carol", "TA");
+        Socket anonymous = join("thread-test-routing");
+        Socket replay = join("thread-test-routing" + CommentServerThread.REPLAY_SUFFIX);
+        register(replay, "bob", "TA");
+
+        send(sender, comment("whisper", "ALL", "bob"));
+        assertTrue(readFrame(sender).contains("<value>whisper</value>"));
+        send(sender, comment("scoped", "TA", ""));
+        assertTrue(readFrame(sender).contains("<value>scoped</value>"));
+        send(sender, comment("marker"));
+        assertTrue(readFrame(sender).contains("<value>marker</value>"));
+
+        assertTrue(readFrame(bob).contains("<value>whisper</value>"));
+        assertTrue(readFrame(bob).contains("<value>marker</value>"));
+        assertTrue(readFrame(carol).contains("<value>scoped</value>"));
+        assertTrue(readFrame(carol).contains("<value>marker</value>"));
+        assertTrue(readFrame(anonymous).contains("<value>marker</value>"));
+
+        // the sender's thread wrote to every recipient before its own echo
+        send(replay, "#ping");
+        assertEquals(IdleMonitor.PONG, readFrame(replay));
+    }
+}
@@ -0,0 +1,121 @@
+package commentserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of IdleMonitor
+ *
+ * @author Hiroki Sawano
+ */
+public class IdleMonitorTest {
+
+    private static final long WRITE_TIMEOUT = 500;
+
+    private ServerSocketChannel server;
+    private Socket client;
+    private SocketChannel channel;
+    private Socket accepted;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Config.getInstance().init();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        client = new Socket();
+        client.setReceiveBufferSize(1024);
+        client.connect(server.getLocalAddress());
+        channel = server.accept();
+        accepted = channel.socket();
+        accepted.setSendBufferSize(1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    /**
+     * a client which stops reading is closed after write_timeout, 
+     * and the timer keeps running other tasks meanwhile
+     */
+    @Test
+    public void testWriteTimeout() throws Exception {
+        IdleMonitor monitor = new IdleMonitor(new CommentServerThread(channel, "", new byte[0]), accepted, 0, WRITE_TIMEOUT, 100);
+        OutputStream out = monitor.monitor(ChannelStreams.out(channel));
+        monitor.start();
+
+        long start = System.nanoTime();
+        AtomicLong failed = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            byte[] data = new byte[64 * 1024];
+            try {
+                while (true) {
+                    out.write(data);
+                }
+            } catch (IOException e) {
+                failed.set(System.nanoTime());
+            }
+        });
+        writer.start();
+
+        // other tasks on the timer aren't held up by the blocked write
+        CountDownLatch fired = new CountDownLatch(1);
+        HashedWheelTimer.getInstance().newTimeout(fired::countDown, WRITE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(WRITE_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        writer.join(WRITE_TIMEOUT * 10);
+        assertTrue(accepted.isClosed());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(failed.get() - start);
+        assertTrue("closed after " + elapsed + " ms", elapsed >= WRITE_TIMEOUT);
+    }
+
+    /**
+     * a client which keeps reading isn't closed
+     */
+    @Test
+    public void testReadingClientIsKept() throws Exception {
+        IdleMonitor monitor = new IdleMonitor(new CommentServerThread(channel, "", new byte[0]), accepted, 0, WRITE_TIMEOUT, 0);
+        OutputStream out = monitor.monitor(ChannelStreams.out(channel));
+        monitor.start();
+
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                while (client.getInputStream().read(buffer) >= 0) {
+                    // discard
+                }
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        });
+        reader.start();
+        byte[] data = new byte[64 * 1024];
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT * 3);
+        while (System.nanoTime() < end) {
+            out.write(data);
+        }
+        monitor.stop();
+        assertFalse(accepted.isClosed());
+    }
+}
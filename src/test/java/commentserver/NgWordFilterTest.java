@@ -0,0 +1,94 @@
+package commentserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test of NgWordFilter
+ *
+ * @author Hiroki Sawano
+ */
+public class NgWordFilterTest {
+
+    private static final long RELOAD_INTERVAL = 50;
+    private static final long WAIT = 5000;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ng_words", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static Comment comment(String value) {
+        return Comment.parse("1,,,0," + value + ",normal,,all,,medium,naka");
+    }
+
+    /**
+     * replace the file at once so that the filter never reads it half written
+     */
+    private void write(long modified, String... words) throws IOException {
+        Path written = Files.createTempFile(file.getParent(), "ng_words", ".tmp");
+        Files.write(written, Arrays.asList(words), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(written, FileTime.fromMillis(modified));
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * comments are dropped or masked, and blank lines and comments in the file are ignored
+     */
+    @Test
+    public void testFilter() throws IOException {
+        write(System.currentTimeMillis(), "# NG words", "", "foo");
+        NgWordFilter drop = new NgWordFilter(file, false, 0);
+        assertNull(drop.filter(null, comment("a FOO b")));
+        Comment kept = comment("a bar b");
+        assertSame(kept, drop.filter(null, kept));
+
+        NgWordFilter mask = new NgWordFilter(file, true, 0);
+        assertEquals("a *** b", mask.filter(null, comment("a foo b")).getValue());
+        assertSame(kept, mask.filter(null, kept));
+    }
+
+    /**
+     * a modified file is read again while the filter keeps filtering with the old words
+     */
+    @Test
+    public void testReload() throws Exception {
+        long modified = System.currentTimeMillis() - 10000;
+        write(modified, "foo");
+        NgWordFilter filter = new NgWordFilter(file, false, RELOAD_INTERVAL);
+        assertNull(filter.filter(null, comment("foo")));
+        assertNotNull(filter.filter(null, comment("bar")));
+
+        try {
+            write(modified + 1000, "bar");
+            long deadline = System.currentTimeMillis() + WAIT;
+            while (filter.filter(null, comment("bar")) != null && System.currentTimeMillis() < deadline) {
+                assertNull(filter.filter(null, comment("foo")));
+                Thread.sleep(10);
+            }
+            assertNull(filter.filter(null, comment("bar")));
+            assertNotNull(filter.filter(null, comment("foo")));
+        } finally {
+            filter.close();
+        }
+    }
+}
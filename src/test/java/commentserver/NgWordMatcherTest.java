@@ -0,0 +1,86 @@
+package commentserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of NgWordMatcher
+ *
+ * @author Hiroki Sawano
+ */
+public class NgWordMatcherTest {
+
+    /**
+     * words overlapping each other in a text are all found
+     */
+    @Test
+    public void testOverlappingWords() {
+        NgWordMatcher matcher = new NgWordMatcher(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(4, matcher.size());
+        assertTrue(matcher.matches("ushers"));
+        assertEquals("u*****", matcher.mask("ushers", '*'));
+        assertFalse(matcher.matches("hi s"));
+    }
+
+    /**
+     * a word which is a suffix of a longer partial match is found through failure links
+     */
+    @Test
+    public void testSuffixOutputs() {
+        NgWordMatcher matcher = new NgWordMatcher(Arrays.asList("abcd", "bc", "c"));
+        assertTrue(matcher.matches("xbcx"));
+        assertTrue(matcher.matches("abcx"));
+        assertEquals("a**x", matcher.mask("abcx", '*'));
+        assertEquals("xy*z", matcher.mask("xycz", '*'));
+        assertFalse(matcher.matches("abd"));
+    }
+
+    /**
+     * words and texts are compared case-insensitively, ASCII or not
+     */
+    @Test
+    public void testCaseFolding() {
+        NgWordMatcher matcher = new NgWordMatcher(Arrays.asList("BadWord", "ÄRGER", "ｓｐａｍ"));
+        assertTrue(matcher.matches("a badword here"));
+        assertTrue(matcher.matches("A BADWORD HERE"));
+        assertTrue(matcher.matches("ärger"));
+        assertTrue(matcher.matches("ÄrGeR"));
+        assertTrue(matcher.matches("ＳＰＡＭ"));
+        assertEquals("a ******* here", matcher.mask("a BaDwOrD here", '*'));
+        assertFalse(matcher.matches("bad word"));
+    }
+
+    /**
+     * only the words are masked, and a text without words is returned as it is
+     */
+    @Test
+    public void testMask() {
+        NgWordMatcher matcher = new NgWordMatcher(Arrays.asList("ばか", "あほ"));
+        assertEquals("お前は**で**だ", matcher.mask("お前はばかであほだ", '*'));
+        assertEquals("**か", matcher.mask("ばかか", '*'));
+        String text = "こんにちは";
+        assertSame(text, matcher.mask(text, '*'));
+    }
+
+    /**
+     * an empty dictionary matches nothing, and empty words are ignored
+     */
+    @Test
+    public void testEmptyDictionary() {
+        NgWordMatcher matcher = new NgWordMatcher(new ArrayList<>());
+        assertEquals(0, matcher.size());
+        assertFalse(matcher.matches("anything"));
+        assertFalse(matcher.matches(""));
+        String text = "anything";
+        assertSame(text, matcher.mask(text, '*'));
+
+        matcher = new NgWordMatcher(Arrays.asList(""));
+        assertEquals(0, matcher.size());
+        assertFalse(matcher.matches("anything"));
+    }
+}
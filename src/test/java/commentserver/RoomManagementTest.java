@@ -0,0 +1,104 @@
+package commentserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of RoomManagement
+ *
+ * @author Hiroki Sawano
+ */
+public class RoomManagementTest {
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Config.getInstance().init();
+        Files.createDirectories(Paths.get(Config.getInstance().getCommentListDir()));
+    }
+
+    private static Path file(String movieId) {
+        return Paths.get(Config.getInstance().getCommentListDir(), movieId + ".xml");
+    }
+
+    /**
+     * viewers of a movie share a comment list, which is written when the last of them leaves
+     */
+    @Test
+    public void testJoinAndLeave() throws Exception {
+        String movieId = "room-test-join";
+        Files.deleteIfExists(file(movieId));
+
+        CommentList first = RoomManagement.joinRoom(movieId);
+        assertSame(first, RoomManagement.joinRoom(movieId));
+        first.addComment(Comment.parse("1,,,0,kept,normal,,all,,medium,naka"));
+
+        RoomManagement.leaveRoom(movieId);
+        assertTrue(RoomManagement.getMovieIds().contains(movieId));
+        RoomManagement.leaveRoom(movieId);
+        assertFalse(RoomManagement.getMovieIds().contains(movieId));
+
+        CommentList reopened = RoomManagement.joinRoom(movieId);
+        assertNotSame(first, reopened);
+        assertEquals(1, reopened.size());
+        RoomManagement.leaveRoom(movieId);
+    }
+
+    /**
+     * viewers joining and leaving at once are all counted, whichever of them reads or writes the file
+     */
+    @Test
+    public void testConcurrentJoinAndLeave() throws Exception {
+        String movieId = "room-test-concurrent";
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(() -> {
+                    RoomManagement.joinRoom(movieId);
+                    RoomManagement.leaveRoom(movieId);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertFalse(RoomManagement.getMovieIds().contains(movieId));
+
+        CommentList held = RoomManagement.joinRoom(movieId);
+        assertEquals(1, held.getViewers());
+        RoomManagement.leaveRoom(movieId);
+    }
+
+    /**
+     * a warmed room nobody joins is evicted, but a joined one is kept
+     */
+    @Test
+    public void testEvictIdleRooms() throws Exception {
+        String warmed = "room-test-warmed";
+        String joined = "room-test-joined";
+        RoomManagement.warmRoom(warmed);
+        RoomManagement.joinRoom(joined);
+
+        RoomManagement.evictIdleRooms(0);
+        assertFalse(RoomManagement.getMovieIds().contains(warmed));
+        assertTrue(RoomManagement.getMovieIds().contains(joined));
+        RoomManagement.leaveRoom(joined);
+    }
+}